@@ -152,6 +152,13 @@ export default function ChatPage() {
           m.id === placeholderId ? { ...m, content: m.content + chunk } : m
         )))
       }
+      // 重连时服务端补发的事件已被覆盖，整体替换为已生成的内容
+      es.addEventListener('reset', (ev) => {
+        const content = (ev as MessageEvent).data || ''
+        setMessages((prev) => prev.map(m => (
+          m.id === placeholderId ? { ...m, content } : m
+        )))
+      })
       es.addEventListener('done', async () => {
         try {
           const resAll = await axiosInstance.get(`/conversation/${sendConversationId}`)
@@ -173,6 +180,8 @@ export default function ChatPage() {
         }
       })
       es.onerror = (err) => {
+        // 网络中断时浏览器会带 Last-Event-ID 自动重连，服务端接回原来的生成
+        if (es.readyState === EventSource.CONNECTING) return
         if (typeof window !== 'undefined') {
           try {
             window.localStorage.removeItem(`pending_input_${sendConversationId}_kb`)
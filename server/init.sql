@@ -11,6 +11,18 @@ create table conversations
 create index idx_user_id
     on conversations (user_id);
 
+create table conversation_summaries
+(
+    conversation_id bigint                              not null comment '所属对话的ID，主键'
+        primary key,
+    summary         text                                not null comment '滚动摘要内容',
+    last_message_id bigint                              not null comment '摘要已覆盖到的最后一条消息ID',
+    token_count     int       default 0                 not null comment '摘要的 token 数',
+    created_at      timestamp default CURRENT_TIMESTAMP null,
+    updated_at      timestamp default CURRENT_TIMESTAMP null on update CURRENT_TIMESTAMP
+)
+    comment '对话历史滚动摘要表';
+
 create table documents
 (
     id                bigint auto_increment
@@ -24,6 +36,26 @@ create table documents
     updated_at        timestamp default CURRENT_TIMESTAMP                   null on update CURRENT_TIMESTAMP
 );
 
+create table ingestion_jobs
+(
+    id           bigint auto_increment comment '切片任务ID，主键'
+        primary key,
+    document_id  bigint                                                not null comment '关联的文档ID',
+    status       enum ('PENDING', 'PROCESSING', 'COMPLETED', 'FAILED') not null comment '任务状态',
+    attempts     int       default 0                                   not null comment '已尝试次数',
+    max_attempts int       default 5                                   not null comment '最大尝试次数',
+    next_run_at  timestamp default CURRENT_TIMESTAMP                   not null comment '下一次可执行时间，用于退避重试',
+    last_error   varchar(1024)                                         null comment '最近一次失败原因',
+    created_at   timestamp default CURRENT_TIMESTAMP                   null,
+    updated_at   timestamp default CURRENT_TIMESTAMP                   null on update CURRENT_TIMESTAMP,
+    constraint uk_document_id
+        unique (document_id)
+)
+    comment '文档切片任务表';
+
+create index idx_status_next_run_at
+    on ingestion_jobs (status, next_run_at);
+
 create table knowledge_bases
 (
     id          bigint auto_increment
@@ -31,6 +63,7 @@ create table knowledge_bases
     user_id     bigint                              not null,
     name        varchar(255)                        not null,
     description text                                null,
+    no_context_short_circuit tinyint(1) default 1  not null comment '检索不到知识片段时直接回复固定答案，不调用模型',
     created_at  timestamp default CURRENT_TIMESTAMP null,
     updated_at  timestamp default CURRENT_TIMESTAMP null on update CURRENT_TIMESTAMP
 );
@@ -58,13 +91,18 @@ create table messages
     conversation_id bigint                              not null comment '所属对话的ID',
     role            enum ('user', 'assistant')          not null comment '消息发送者的角色 (user 或 assistant)',
     content         text                                not null comment '消息的具体内容',
-    created_at      timestamp default CURRENT_TIMESTAMP not null comment '消息创建时间'
+    status          enum ('STREAMING', 'COMPLETED', 'CANCELLED', 'FAILED') default 'COMPLETED' not null comment '消息状态，流式生成中的助手消息为 STREAMING',
+    created_at      timestamp default CURRENT_TIMESTAMP not null comment '消息创建时间',
+    updated_at      timestamp default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '最后更新时间，流式生成期间随检查点刷新'
 )
     comment '对话消息表';
 
 create index idx_conversation_id
     on messages (conversation_id);
 
+create index idx_status_updated_at
+    on messages (status, updated_at);
+
 create table nodes
 (
     id          varchar(255)                        not null
@@ -42,6 +42,15 @@ public class HttpStatusCodeAdvice implements ResponseBodyAdvice {
         if (code == StatusEnum.FORBIDDEN.getCode()) {
             return HttpStatus.FORBIDDEN;
         }
+        if (code == StatusEnum.TOO_MANY_REQUESTS.getCode()) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+        if (code == StatusEnum.SERVICE_UNAVAILABLE.getCode()) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        if (code == StatusEnum.DEADLINE_EXCEEDED.getCode()) {
+            return HttpStatus.GATEWAY_TIMEOUT;
+        }
         if (code == StatusEnum.SERVER_ERROR.getCode()) {
             return HttpStatus.INTERNAL_SERVER_ERROR;
         }
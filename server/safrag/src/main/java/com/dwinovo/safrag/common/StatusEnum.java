@@ -10,10 +10,16 @@ public enum StatusEnum {
     // 通用
     SUCCESS(200, "success"),
     SERVER_ERROR(500, "服务器异常"),
+    SERVICE_UNAVAILABLE(503, "依赖服务暂不可用，请稍后再试"),
+    DEADLINE_EXCEEDED(504, "请求处理超时，请稍后再试"),
 
     // 认证鉴权
     UNAUTHORIZED(401, "未登录或令牌缺失"),
     FORBIDDEN(403, "无权限"),
+    TOO_MANY_REQUESTS(429, "当前对话请求过多，请稍后再试"),
+
+    // 对话流
+    STREAM_EXPIRED(43001, "对话流已结束或已过期，请刷新消息列表"),
 
     // 用户相关
     USER_NOT_FOUND(40001, "用户不存在"),
@@ -21,7 +27,11 @@ public enum StatusEnum {
     USERNAME_EXISTS(40003, "用户名已存在"),
 
     // 等级相关
-    LEVEL_NOT_FOUND(41001, "指定的等级不存在");
+    LEVEL_NOT_FOUND(41001, "指定的等级不存在"),
+
+    // 批量问答
+    BATCH_QUESTIONS_EMPTY(42001, "问题列表不能为空"),
+    BATCH_TOO_LARGE(42002, "单次批量问答的问题数超出上限");
 
     private final int code;
     private final String message;
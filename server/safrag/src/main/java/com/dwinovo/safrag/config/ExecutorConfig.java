@@ -0,0 +1,72 @@
+package com.dwinovo.safrag.config;
+
+import com.dwinovo.safrag.pojo.IngestionProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+@EnableScheduling
+public class ExecutorConfig {
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    /**
+     * 文档切片专用线程池，与其他异步任务隔离，线程数即对 RAG Server 的最大并发切片数。
+     */
+    @Bean(name = "ingestionExecutor")
+    public ThreadPoolTaskExecutor ingestionExecutor() {
+        int workers = Math.max(1, ingestionProperties.getWorkerThreads());
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        // 派发前已按空闲槽位限流，队列仅作缓冲
+        executor.setQueueCapacity(workers);
+        executor.setThreadNamePrefix("ingest-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 对话摘要刷新线程池，摘要只是优化项，队列满时直接丢弃。
+     */
+    @Bean(name = "summaryExecutor")
+    public ThreadPoolTaskExecutor summaryExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("summary-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 对话请求编排使用的虚拟线程执行器，阻塞的数据库与 HTTP 调用不会占用平台线程。
+     */
+    @Bean(name = "chatExecutor", destroyMethod = "close")
+    public ExecutorService chatExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-", 0).factory());
+    }
+
+    /**
+     * 响应式链路上阻塞调用（数据库、准入排队）使用的调度器，底层是同一个虚拟线程执行器。
+     * 执行器由 chatExecutor 自己关闭，这里不随调度器销毁。
+     */
+    @Bean(name = "chatScheduler", destroyMethod = "")
+    public Scheduler chatScheduler() {
+        return Schedulers.fromExecutorService(chatExecutor(), "chat");
+    }
+}
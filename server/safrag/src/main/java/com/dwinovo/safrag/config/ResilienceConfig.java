@@ -0,0 +1,111 @@
+package com.dwinovo.safrag.config;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.pojo.ResilienceProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * RAG Server、S3 与大模型三个外部依赖各自的熔断器与舱壁。
+ * 熔断器打开或舱壁已满时立即失败，避免一个慢依赖拖住所有请求线程。
+ */
+@Slf4j
+@Configuration
+public class ResilienceConfig {
+
+    public static final String RAG = "rag";
+    public static final String S3 = "s3";
+    public static final String LLM = "llm";
+
+    @Autowired
+    private ResilienceProperties resilienceProperties;
+
+    @Bean
+    public CircuitBreakerRegistry circuitBreakerRegistry(MeterRegistry meterRegistry) {
+        CircuitBreakerRegistry registry = CircuitBreakerRegistry.ofDefaults();
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry;
+    }
+
+    @Bean
+    public BulkheadRegistry bulkheadRegistry(MeterRegistry meterRegistry) {
+        BulkheadRegistry registry = BulkheadRegistry.ofDefaults();
+        TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+        return registry;
+    }
+
+    @Bean(name = "ragCircuitBreaker")
+    public CircuitBreaker ragCircuitBreaker(CircuitBreakerRegistry registry) {
+        return circuitBreaker(registry, RAG, resilienceProperties.getRag());
+    }
+
+    @Bean(name = "ragBulkhead")
+    public Bulkhead ragBulkhead(BulkheadRegistry registry) {
+        return bulkhead(registry, RAG, resilienceProperties.getRag());
+    }
+
+    @Bean(name = "s3CircuitBreaker")
+    public CircuitBreaker s3CircuitBreaker(CircuitBreakerRegistry registry) {
+        return circuitBreaker(registry, S3, resilienceProperties.getS3());
+    }
+
+    @Bean(name = "s3Bulkhead")
+    public Bulkhead s3Bulkhead(BulkheadRegistry registry) {
+        return bulkhead(registry, S3, resilienceProperties.getS3());
+    }
+
+    @Bean(name = "llmCircuitBreaker")
+    public CircuitBreaker llmCircuitBreaker(CircuitBreakerRegistry registry) {
+        return circuitBreaker(registry, LLM, resilienceProperties.getLlm());
+    }
+
+    @Bean(name = "llmBulkhead")
+    public Bulkhead llmBulkhead(BulkheadRegistry registry) {
+        return bulkhead(registry, LLM, resilienceProperties.getLlm());
+    }
+
+    private CircuitBreaker circuitBreaker(CircuitBreakerRegistry registry, String name,
+                                          ResilienceProperties.Policy policy) {
+        CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+                .failureRateThreshold(policy.getFailureRateThreshold())
+                .slowCallRateThreshold(policy.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(Duration.ofMillis(policy.getSlowCallDurationMs()))
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(policy.getSlidingWindowSize())
+                .minimumNumberOfCalls(policy.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(Duration.ofMillis(policy.getWaitInOpenMs()))
+                .permittedNumberOfCallsInHalfOpenState(policy.getPermittedCallsInHalfOpen())
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                // 4xx、业务异常与舱壁拒绝不代表依赖本身故障；模型调用的 4xx 由 Spring AI 包装为 NonTransientAiException
+                .ignoreExceptions(HttpClientErrorException.class, NonTransientAiException.class, BusinessException.class,
+                        BulkheadFullException.class)
+                .build();
+        CircuitBreaker breaker = registry.circuitBreaker(name, config);
+        breaker.getEventPublisher().onStateTransition(event ->
+                log.warn("熔断器 {} 状态变化: {}", name, event.getStateTransition()));
+        return breaker;
+    }
+
+    private Bulkhead bulkhead(BulkheadRegistry registry, String name, ResilienceProperties.Policy policy) {
+        BulkheadConfig config = BulkheadConfig.custom()
+                .maxConcurrentCalls(policy.getMaxConcurrentCalls())
+                .maxWaitDuration(Duration.ofMillis(policy.getMaxWaitMs()))
+                .build();
+        return registry.bulkhead(name, config);
+    }
+}
@@ -1,11 +1,16 @@
 package com.dwinovo.safrag.config;
 
+import java.util.concurrent.ExecutorService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import com.dwinovo.safrag.interceptor.DeadlineInterceptor;
 import com.dwinovo.safrag.interceptor.JwtInterceptor;
 
 @Configuration
@@ -14,6 +19,13 @@ public class WebMvcConfig implements WebMvcConfigurer {
     @Autowired
     private JwtInterceptor jwtInterceptor;
 
+    @Autowired
+    private DeadlineInterceptor deadlineInterceptor;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
@@ -27,6 +39,9 @@ public class WebMvcConfig implements WebMvcConfigurer {
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // 先于鉴权注册，处理时限从请求进入开始计算
+        registry.addInterceptor(deadlineInterceptor)
+                .addPathPatterns("/api/**");
         registry.addInterceptor(jwtInterceptor)
                 .addPathPatterns("/api/**")
                 .excludePathPatterns(
@@ -36,4 +51,12 @@ public class WebMvcConfig implements WebMvcConfigurer {
                         "/error"
                 );
     }
+
+    /**
+     * 控制器返回 Flux 时由该执行器把元素写出到响应；写出会阻塞在慢客户端上，使用虚拟线程。
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(chatExecutor));
+    }
 }
@@ -0,0 +1,49 @@
+package com.dwinovo.safrag.controller;
+
+import com.dwinovo.safrag.pojo.SseConnectionInfo;
+import com.dwinovo.safrag.service.SseConnectionService;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * 运维端点 /actuator/chatstreams：查看本节点进行中的对话流连接，按 ID 关闭卡住的连接。
+ * 不经过业务接口的 JWT 校验，只应暴露在内部管理端口上。
+ */
+@Component
+@Endpoint(id = "chatstreams")
+public class ChatStreamsEndpoint {
+
+    @Autowired
+    private SseConnectionService sseConnectionService;
+
+    @ReadOperation
+    public Map<String, Object> streams() {
+        List<SseConnectionInfo> connections = sseConnectionService.list();
+        Map<Long, Integer> byUser = new TreeMap<>();
+        for (SseConnectionInfo connection : connections) {
+            byUser.merge(connection.getUserId(), 1, Integer::sum);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("accepting", sseConnectionService.isAccepting());
+        result.put("active", connections.size());
+        result.put("byUser", byUser);
+        result.put("connections", connections);
+        return result;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> close(@Selector String id) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", id);
+        result.put("closed", sseConnectionService.close(id));
+        return result;
+    }
+}
@@ -64,6 +64,20 @@ public class DocumentController {
         return ApiResponse.success(documentService.getDocument(knowledgeBaseId, documentId));
     }
 
+    @PostMapping("/{documentId}/retry")
+    public ApiResponse<Document> retryIngestion(@RequestParam("knowledgeBaseId") Long knowledgeBaseId,
+                                                @PathVariable("documentId") Long documentId,
+                                                HttpServletRequest request) {
+        Claims claims = (Claims) request.getAttribute("jwtClaims");
+        if (claims == null) throw new BusinessException(StatusEnum.UNAUTHORIZED);
+        Long userId = Long.valueOf(claims.getSubject());
+        KnowledgeBase kb = knowledgeBaseService.getKnowledgeBase(userId, knowledgeBaseId);
+        if (kb == null || kb.getUserId() == null || !kb.getUserId().equals(userId)) {
+            throw new BusinessException(StatusEnum.FORBIDDEN);
+        }
+        return ApiResponse.success(documentService.retryIngestion(knowledgeBaseId, documentId));
+    }
+
     @DeleteMapping("/{documentId}")
     public ApiResponse<Void> deleteDocument(@RequestParam("knowledgeBaseId") Long knowledgeBaseId,
                                             @PathVariable("documentId") Long documentId,
@@ -34,6 +34,8 @@ public class KnowledgeBaseController {
         @NotBlank(message = "名称不能为空")
         public String name;
         public String description;
+        // 仅更新时生效，为空表示不修改
+        public Boolean noContextShortCircuit;
     }
 
     @PostMapping("/create")
@@ -68,7 +70,7 @@ public class KnowledgeBaseController {
         Claims claims = (Claims) request.getAttribute("jwtClaims");
         if (claims == null) throw new BusinessException(StatusEnum.UNAUTHORIZED);
         Long userId = Long.valueOf(claims.getSubject());
-        knowledgeBaseService.updateKnowledgeBase(userId, id, req.name, req.description);
+        knowledgeBaseService.updateKnowledgeBase(userId, id, req.name, req.description, req.noContextShortCircuit);
         return ApiResponse.success(null);
     }
 
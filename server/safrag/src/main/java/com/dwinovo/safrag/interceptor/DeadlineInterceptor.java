@@ -0,0 +1,68 @@
+package com.dwinovo.safrag.interceptor;
+
+import com.dwinovo.safrag.pojo.DeadlineProperties;
+import com.dwinovo.safrag.utils.Deadline;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * 在控制器入口为请求设置截止时间，绑定到处理请求的线程上。
+ * 流式接口在返回后继续异步生成，由服务层在返回前取走截止时间。
+ */
+@Component
+public class DeadlineInterceptor implements AsyncHandlerInterceptor {
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    @Autowired
+    private DeadlineProperties deadlineProperties;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // 异步结果写回时会再次分发，沿用首次分发时设置的截止时间
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        long budgetMs = budgetOf(request.getRequestURI());
+        String requested = request.getHeader(deadlineProperties.getHeader());
+        if (StringUtils.hasText(requested)) {
+            try {
+                long requestedMs = Long.parseLong(requested.trim());
+                if (requestedMs > 0 && (budgetMs <= 0 || requestedMs < budgetMs)) {
+                    budgetMs = requestedMs;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Deadline.set(budgetMs > 0 ? Deadline.after(budgetMs) : null);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        Deadline.set(null);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Deadline.set(null);
+    }
+
+    private long budgetOf(String path) {
+        for (Map.Entry<String, Long> route : deadlineProperties.getRoutes().entrySet()) {
+            if (pathMatcher.match(route.getKey(), path)) {
+                return route.getValue() == null ? 0L : route.getValue();
+            }
+        }
+        return deadlineProperties.getDefaultMs();
+    }
+}
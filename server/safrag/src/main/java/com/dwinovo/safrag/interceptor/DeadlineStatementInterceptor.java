@@ -0,0 +1,36 @@
+package com.dwinovo.safrag.interceptor;
+
+import com.dwinovo.safrag.utils.Deadline;
+import java.sql.Connection;
+import java.sql.Statement;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.stereotype.Component;
+
+/**
+ * MyBatis 插件：当前线程有截止时间时，已过期则不再执行 SQL，否则把剩余预算设为 JDBC 查询超时。
+ */
+@Component
+@Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class}))
+public class DeadlineStatementInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return invocation.proceed();
+        }
+        deadline.check();
+        Statement statement = (Statement) invocation.proceed();
+        // JDBC 查询超时以秒为单位，向上取整；映射文件里配置了更短的超时则保留
+        int seconds = (int) Math.max(1L, (deadline.remainingMillis() + 999) / 1000);
+        int configured = statement.getQueryTimeout();
+        if (configured <= 0 || seconds < configured) {
+            statement.setQueryTimeout(seconds);
+        }
+        return statement;
+    }
+}
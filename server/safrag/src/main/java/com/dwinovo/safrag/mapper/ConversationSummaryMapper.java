@@ -0,0 +1,15 @@
+package com.dwinovo.safrag.mapper;
+
+import com.dwinovo.safrag.pojo.ConversationSummary;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface ConversationSummaryMapper {
+
+    ConversationSummary findByConversationId(@Param("conversationId") Long conversationId);
+
+    int upsert(ConversationSummary summary);
+
+    int deleteByConversationId(@Param("conversationId") Long conversationId);
+}
@@ -0,0 +1,40 @@
+package com.dwinovo.safrag.mapper;
+
+import com.dwinovo.safrag.pojo.IngestionJob;
+import java.util.Collection;
+import java.util.List;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface IngestionJobMapper {
+
+    int insert(IngestionJob job);
+
+    IngestionJob findByDocumentId(@Param("documentId") Long documentId);
+
+    List<IngestionJob> listDue(@Param("limit") int limit);
+
+    int claim(@Param("id") Long id, @Param("attempts") int attempts);
+
+    int unclaim(@Param("id") Long id);
+
+    int markCompleted(@Param("id") Long id, @Param("attempts") int attempts);
+
+    int markRetry(@Param("id") Long id,
+                  @Param("attempts") int attempts,
+                  @Param("delaySeconds") long delaySeconds,
+                  @Param("lastError") String lastError);
+
+    int markFailed(@Param("id") Long id, @Param("attempts") int attempts, @Param("lastError") String lastError);
+
+    int resetByDocumentId(@Param("documentId") Long documentId, @Param("maxAttempts") int maxAttempts);
+
+    int renewLease(@Param("ids") Collection<Long> ids);
+
+    int recoverProcessing(@Param("leaseSeconds") long leaseSeconds);
+
+    int insertMissing(@Param("maxAttempts") int maxAttempts);
+
+    int deleteByDocumentId(@Param("documentId") Long documentId);
+}
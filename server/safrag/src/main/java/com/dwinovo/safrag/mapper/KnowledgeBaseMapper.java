@@ -21,8 +21,12 @@ public interface KnowledgeBaseMapper {
     int updateByIdAndUserId(@Param("id") Long id,
                              @Param("userId") Long userId,
                              @Param("name") String name,
-                             @Param("description") String description);
+                             @Param("description") String description,
+                             @Param("noContextShortCircuit") Boolean noContextShortCircuit);
 
     List<KnowledgeBase> listAvailableByPriority(@Param("userId") Long userId,
                                                 @Param("priority") Integer priority);
+
+    // 全部知识库的 id、所有者、所有者等级与无上下文策略，用于构建可见性缓存
+    List<KnowledgeBase> listOwnership();
 }
@@ -10,9 +10,27 @@ public interface MessageMapper {
 
     int insert(Message m);
 
+    int checkpointContent(@Param("id") Long id, @Param("content") String content);
+
+    int finishStreaming(@Param("id") Long id, @Param("content") String content, @Param("status") String status);
+
+    int deleteById(@Param("id") Long id);
+
+    int deleteEmptyStreaming(@Param("graceSeconds") long graceSeconds);
+
+    int failStreaming(@Param("graceSeconds") long graceSeconds);
+
     int deleteByConversationId(@Param("conversationId") Long conversationId);
 
     List<Message> listByConversationId(@Param("conversationId") Long conversationId);
+
+    List<Message> listRecentByConversationId(@Param("conversationId") Long conversationId,
+                                             @Param("limit") int limit);
+
+    List<Message> listRange(@Param("conversationId") Long conversationId,
+                            @Param("afterId") Long afterId,
+                            @Param("beforeId") Long beforeId,
+                            @Param("limit") int limit);
 }
 
 
@@ -13,4 +13,7 @@ public interface NodeMapper {
     int insertBatch(@Param("nodes") List<Node> nodes);
 
     List<Node> listByDocumentId(@Param("documentId") Long documentId);
+
+    // 按主键分页加载节点及其所属知识库，用于构建关键词索引
+    List<Node> listForIndex(@Param("afterId") String afterId, @Param("limit") int limit);
 }
@@ -0,0 +1,19 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.admission")
+public class AdmissionProperties {
+    // 全局同时进行的模型流上限
+    private int maxConcurrent = 16;
+    // 单个用户同时进行的模型流上限
+    private int maxPerUser = 2;
+    // 等待队列长度上限，超出后直接拒绝
+    private int maxQueue = 64;
+    // 排队等待的最长时间
+    private long maxWaitMs = 20000;
+}
@@ -0,0 +1,26 @@
+package com.dwinovo.safrag.pojo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * 批量问答中单个问题的结果，对应 NDJSON 响应的一行。
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchQaResult {
+
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_ERROR = "error";
+
+    // 问题在请求列表中的下标，结果按完成顺序返回
+    private int index;
+    private String question;
+    private String status;
+    private String answer;
+    // 实际放入提示词的知识片段所属文档
+    private List<Long> documentIds;
+    private String error;
+    private long latencyMs;
+}
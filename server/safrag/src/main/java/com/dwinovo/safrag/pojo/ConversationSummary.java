@@ -0,0 +1,16 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class ConversationSummary {
+
+    private Long conversationId;
+    private String summary;
+    private Long lastMessageId;   // 摘要已覆盖到的最后一条消息
+    private Integer tokenCount;
+    private Date createdAt;
+    private Date updatedAt;
+}
@@ -0,0 +1,19 @@
+package com.dwinovo.safrag.pojo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "request.deadline")
+public class DeadlineProperties {
+    // 未在 routes 中配置的接口的处理时限
+    private long defaultMs = 30000;
+    // 按路径覆盖处理时限（Ant 风格路径 → 毫秒），按配置顺序匹配第一个；0 表示不设时限
+    private Map<String, Long> routes = new LinkedHashMap<>();
+    // 客户端可通过该请求头缩短（不能延长）处理时限，单位毫秒
+    private String header = "X-Request-Timeout-Ms";
+}
@@ -0,0 +1,19 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.history")
+public class HistoryProperties {
+    // 历史消息（含摘要）可占用的 token 预算
+    private int maxTokens = 3000;
+    // 每次最多从数据库读取的最近消息条数
+    private int maxMessages = 60;
+    private boolean summaryEnabled = true;
+    private int summaryMaxTokens = 600;
+    // 单次折叠进摘要的最大消息条数
+    private int summaryBatchSize = 40;
+}
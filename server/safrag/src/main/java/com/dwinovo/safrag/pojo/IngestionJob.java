@@ -0,0 +1,19 @@
+package com.dwinovo.safrag.pojo;
+
+import java.util.Date;
+
+import lombok.Data;
+
+@Data
+public class IngestionJob {
+
+    private Long id;
+    private Long documentId;
+    private String status;
+    private Integer attempts;
+    private Integer maxAttempts;
+    private Date nextRunAt;
+    private String lastError;
+    private Date createdAt;
+    private Date updatedAt;
+}
@@ -0,0 +1,25 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "ingestion")
+public class IngestionProperties {
+    // 同时向 RAG Server 发起切片请求的最大并发数
+    private int workerThreads = 2;
+    // 单个文档的最大尝试次数（含首次）
+    private int maxAttempts = 5;
+    // 指数退避的基准与上限（秒）
+    private long backoffBaseSeconds = 10;
+    private long backoffMaxSeconds = 600;
+    // 单次尝试（清理旧节点、请求切片、写入节点）的时限，RAG 请求与数据库写入只使用剩余预算
+    private long attemptTimeoutMs = 600000;
+    // 扫描待执行任务的间隔（毫秒）
+    private long pollIntervalMs = 2000;
+    // 执行中任务的租约：每隔 leaseRenewIntervalMs 续租，超过 leaseSeconds 未续租的任务由任一节点重新排队
+    private long leaseSeconds = 120;
+    private long leaseRenewIntervalMs = 30000;
+}
@@ -11,6 +11,8 @@ public class KnowledgeBase {
     private Long userId;
     private String name;
     private String description;
+    // 检索不到知识片段时是否直接回复固定答案，不调用模型
+    private Boolean noContextShortCircuit;
     private Date createdAt;
     private Date updatedAt;
     private String ownerName;
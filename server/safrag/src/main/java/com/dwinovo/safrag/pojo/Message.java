@@ -11,6 +11,7 @@ public class Message {
     private Long conversationId;
     private String role;      // user / assistant / system
     private String content;   // message content
+    private String status;    // STREAMING / COMPLETED / CANCELLED / FAILED
     private Date createdAt;
 }
 
@@ -0,0 +1,44 @@
+package com.dwinovo.safrag.pojo;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.router")
+public class ModelRouterProperties {
+    // 可路由的 OpenAI 兼容端点；为空时只使用 spring.ai.openai.* 配置的默认模型
+    private List<Endpoint> endpoints = new ArrayList<>();
+    // TTFT 与错误率滑动平均中最近一次请求的权重
+    private double ewmaAlpha = 0.2;
+    // 得分 = TTFT × (1 + errorPenalty × 错误率)，得分低者优先
+    private double errorPenalty = 4.0;
+    // 还没有 TTFT 样本的端点按该值参与排序
+    private long initialTtftMs = 1000;
+    // 连续失败达到次数后摘除端点，冷却期过后放行请求探测
+    private int ejectAfterFailures = 3;
+    private long ejectMs = 30000;
+    // 等待首个分片的最长时间，超时视为该端点失败并切换
+    private long firstTokenTimeoutMs = 20000;
+    // 非流式调用（批量问答、摘要）在单个端点上的最长时间，同时不超过请求剩余的处理时限；0 表示只受处理时限约束
+    private long callTimeoutMs = 120000;
+    // 单次请求最多尝试的端点数
+    private int maxAttempts = 2;
+    // 问题不超过该字符数时优先使用 shortQuestionTier 分组的端点，较长的问题优先使用其他分组；0 表示不按长度路由
+    private int shortQuestionMaxChars = 0;
+    private String shortQuestionTier = "small";
+
+    @Data
+    public static class Endpoint {
+        private String name;
+        private String baseUrl;
+        private String apiKey;
+        private String model;
+        // 路由规则使用的分组，例如 large / small
+        private String tier = "large";
+        private boolean enabled = true;
+    }
+}
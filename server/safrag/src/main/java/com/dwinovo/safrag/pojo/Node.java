@@ -1,5 +1,6 @@
 package com.dwinovo.safrag.pojo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.Date;
 import lombok.Data;
 
@@ -10,4 +11,8 @@ public class Node {
     private String context;
     private Date createdAt;
     private Date updatedAt;
+
+    // 所属知识库，仅在加载关键词索引时填充
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long knowledgeBaseId;
 }
@@ -0,0 +1,30 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "rag.client")
+public class RagClientProperties {
+    // 连接池：RAG Server 只有一个地址，单路由上限与总上限一致即可
+    private int maxConnections = 50;
+    // 空闲连接保活时间，超过后关闭，需小于 RAG Server 端的 keep-alive 超时
+    private long keepAliveSeconds = 30;
+    // 从连接池获取连接与建立连接的超时
+    private long connectionRequestTimeoutMs = 2000;
+    private long connectTimeoutMs = 2000;
+    // 各操作的读超时：检索在对话链路上需要短，切片需要解析整份文档
+    private long retrieveTimeoutMs = 5000;
+    private long ingestTimeoutMs = 300000;
+    private long deleteTimeoutMs = 10000;
+    // 幂等请求（检索、删除节点）遇到连接错误或 5xx 时的重试次数与退避基准
+    private int maxRetries = 2;
+    private long retryBackoffMs = 100;
+    // 使用 JDK HttpClient 并优先协商 HTTP/2（RAG Server 需支持 h2c 或 TLS ALPN）
+    private boolean http2 = false;
+    // 请求体 gzip 压缩，需 RAG Server 能解压 Content-Encoding: gzip 的请求
+    private boolean requestCompression = false;
+    private int requestCompressionMinBytes = 2048;
+}
@@ -0,0 +1,35 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "resilience")
+public class ResilienceProperties {
+
+    private Policy rag = new Policy();
+    private Policy s3 = new Policy();
+    private Policy llm = new Policy();
+
+    /**
+     * 单个外部依赖的熔断与隔离参数。
+     */
+    @Data
+    public static class Policy {
+        // 滑动窗口内失败率或慢调用率超过阈值（百分比）时熔断
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 100;
+        private long slowCallDurationMs = 10000;
+        // 按调用次数计算的滑动窗口，以及开始计算失败率前的最少调用数
+        private int slidingWindowSize = 20;
+        private int minimumNumberOfCalls = 10;
+        // 熔断后等待多久进入半开状态，以及半开时放行的探测请求数
+        private long waitInOpenMs = 30000;
+        private int permittedCallsInHalfOpen = 3;
+        // 舱壁：同时进行的调用上限，以及获取名额的最长等待时间
+        private int maxConcurrentCalls = 32;
+        private long maxWaitMs = 0;
+    }
+}
@@ -13,4 +13,6 @@ public class S3Properties {
     private String username;
     private String password;
     private String bucketName;
+    // 单次 S3 调用（含 SDK 重试）的总时限；请求带截止时间时取两者中较小者
+    private long apiCallTimeoutMs = 60000;
 }
@@ -0,0 +1,18 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+
+/**
+ * 管理端点中展示的一个 SSE 连接。
+ */
+@Data
+public class SseConnectionInfo {
+
+    private String id;
+    private Long userId;
+    // 连接所属的接口，如 stream、stream/reactive
+    private String endpoint;
+    private long ageMs;
+    // 距上次写出事件的时间，心跳不计
+    private long idleMs;
+}
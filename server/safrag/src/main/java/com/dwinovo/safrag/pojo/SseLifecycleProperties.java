@@ -0,0 +1,19 @@
+package com.dwinovo.safrag.pojo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat.sse")
+public class SseLifecycleProperties {
+    // 心跳间隔，同时也是空闲与最长时长检查的周期
+    private long heartbeatIntervalMs = 15000;
+    // 超过该时间没有写出任何事件（心跳不计）的连接视为卡住并关闭，0 表示不检查
+    private long idleTimeoutMs = 120000;
+    // 单个连接的最长时长，可续传的流断开后客户端带 Last-Event-ID 重连，0 表示不限制
+    private long maxDurationMs = 600000;
+    // 停机时等待进行中的流自然结束的最长时间，需小于 spring.lifecycle.timeout-per-shutdown-phase
+    private long drainTimeoutMs = 20000;
+}
@@ -0,0 +1,12 @@
+package com.dwinovo.safrag.service;
+
+import java.util.List;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+public interface BatchQaService {
+
+    /**
+     * 并发回答一组问题，每完成一个问题写出一行 JSON；不写入任何会话或消息。
+     */
+    ResponseBodyEmitter answer(Long userId, List<String> questions, List<Long> knowledgeBaseIds);
+}
@@ -0,0 +1,23 @@
+package com.dwinovo.safrag.service;
+
+public interface ChatAdmissionService {
+
+    /**
+     * 申请一个模型流名额；队列已满时抛出 TOO_MANY_REQUESTS。
+     * priority 与 levels.priority 一致，数字越小越先被放行。
+     */
+    Ticket enqueue(Long userId, int priority);
+
+    interface Ticket {
+
+        /**
+         * 等待放行；超时抛出 TOO_MANY_REQUESTS，票据被释放时抛出 CancellationException。
+         */
+        void await() throws InterruptedException;
+
+        /**
+         * 归还名额或退出队列，可重复调用。
+         */
+        void release();
+    }
+}
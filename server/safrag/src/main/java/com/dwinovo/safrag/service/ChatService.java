@@ -0,0 +1,13 @@
+package com.dwinovo.safrag.service;
+
+import java.util.List;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+public interface ChatService {
+
+    /**
+     * lastEventId 非空时表示断线重连，接回原来的生成并补发之后的事件。
+     */
+    SseEmitter streamChat(Long userId, Long conversationId, String userInput, List<Long> knowledgeBaseIds,
+                          String lastEventId);
+}
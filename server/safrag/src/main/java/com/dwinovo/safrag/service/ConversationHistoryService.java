@@ -0,0 +1,11 @@
+package com.dwinovo.safrag.service;
+
+import java.util.List;
+import org.springframework.ai.chat.messages.Message;
+
+public interface ConversationHistoryService {
+
+    List<Message> assemble(Long conversationId, String currentInput);
+
+    void refreshSummaryAsync(Long conversationId);
+}
@@ -12,6 +12,8 @@ public interface ConversationService {
     List<Conversation> listUserConversations(Long userId);
 
     boolean updateConversationTitle(Long userId, Long conversationId, String newTitle);
+
+    boolean isOwner(Long userId, Long conversationId);
 }
 
 
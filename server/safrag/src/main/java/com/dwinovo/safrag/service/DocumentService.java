@@ -13,4 +13,6 @@ public interface DocumentService {
     Document getDocument(Long knowledgeBaseId, Long documentId);
 
     void deleteDocument(Long knowledgeBaseId, Long documentId);
+
+    Document retryIngestion(Long knowledgeBaseId, Long documentId);
 }
@@ -0,0 +1,14 @@
+package com.dwinovo.safrag.service;
+
+import com.dwinovo.safrag.pojo.Document;
+
+public interface IngestionJobService {
+
+    void enqueue(Document document);
+
+    boolean retry(Long documentId);
+
+    void remove(Long documentId);
+
+    void dispatch();
+}
@@ -0,0 +1,17 @@
+package com.dwinovo.safrag.service;
+
+import com.dwinovo.safrag.pojo.Node;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import java.util.List;
+
+public interface KeywordIndexService {
+
+    void indexNodes(Long knowledgeBaseId, List<Node> nodes);
+
+    void removeDocument(Long documentId);
+
+    /**
+     * BM25 检索，结果按得分从高到低排列；索引尚未加载完成时返回空列表。
+     */
+    List<RagRetrieveResponse.RagNode> search(String query, List<Long> knowledgeBaseIds, int topK);
+}
@@ -13,7 +13,10 @@ public interface KnowledgeBaseService {
 
     KnowledgeBase getKnowledgeBase(Long userId, Long id);
 
-    void updateKnowledgeBase(Long userId, Long id, String name, String description);
+    /**
+     * noContextShortCircuit 为 null 时保持原设置。
+     */
+    void updateKnowledgeBase(Long userId, Long id, String name, String description, Boolean noContextShortCircuit);
 
     List<KnowledgeBase> listAvailableKnowledgeBases(Long userId);
 }
@@ -0,0 +1,25 @@
+package com.dwinovo.safrag.service;
+
+import java.util.List;
+
+public interface KnowledgeBaseVisibilityService {
+
+    /**
+     * 用户所在等级的 priority（带缓存）；用户不存在时抛出 UNAUTHORIZED。
+     */
+    int priorityOf(Long userId);
+
+    /**
+     * 保留请求中该用户可见的知识库 id，规则与 listAvailableKnowledgeBases 一致。
+     */
+    List<Long> filterVisible(Long userId, List<Long> knowledgeBaseIds);
+
+    /**
+     * 检索不到知识片段时能否直接回复固定答案：所选知识库都未关闭该策略时为 true，未选知识库时为 true。
+     */
+    boolean shortCircuitsNoContext(List<Long> knowledgeBaseIds);
+
+    void invalidateKnowledgeBases();
+
+    void invalidateUser(Long userId);
+}
@@ -7,6 +7,12 @@ public interface MessageService {
     int clearConversationMessages(Long userId, Long conversationId);
 
     java.util.List<com.dwinovo.safrag.pojo.Message> listConversationMessages(Long userId, Long conversationId);
+
+    Long startStreamingMessage(Long conversationId, String role);
+
+    void checkpointStreamingMessage(Long messageId, String content);
+
+    boolean finishStreamingMessage(Long messageId, String content, String status);
 }
 
 
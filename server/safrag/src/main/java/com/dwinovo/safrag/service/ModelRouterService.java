@@ -0,0 +1,26 @@
+package com.dwinovo.safrag.service;
+
+import com.dwinovo.safrag.utils.Deadline;
+import java.util.List;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import reactor.core.publisher.Flux;
+
+public interface ModelRouterService {
+
+    /**
+     * 按路由规则与各端点的 TTFT、错误率选择模型流式生成；
+     * 首个非空分片之前失败或超时会切换到下一个端点，之后的失败直接向下游传递。
+     *
+     * 截止时间到达后停止生成并以 DEADLINE_EXCEEDED 结束，不再切换端点。
+     *
+     * @param question 用户原始问题，用于按长度路由；为 null 时不应用路由规则
+     * @param deadline 为 null 时不限制总时长
+     */
+    Flux<ChatResponse> stream(List<Message> prompt, String question, Deadline deadline);
+
+    /**
+     * 非流式调用，失败时按同样的顺序切换端点；当前线程的截止时间过期后不再切换。
+     */
+    ChatResponse call(List<Message> prompt, String question);
+}
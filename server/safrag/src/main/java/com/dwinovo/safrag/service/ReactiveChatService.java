@@ -0,0 +1,15 @@
+package com.dwinovo.safrag.service;
+
+import java.util.List;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+public interface ReactiveChatService {
+
+    /**
+     * 与 ChatService.streamChat 事件格式一致（message / done / error），但整条链路不阻塞请求线程；
+     * 不支持按 Last-Event-ID 续传，连接断开即取消生成。
+     */
+    Flux<ServerSentEvent<Object>> streamChat(Long userId, Long conversationId, String userInput,
+                                             List<Long> knowledgeBaseIds);
+}
@@ -0,0 +1,17 @@
+package com.dwinovo.safrag.service;
+
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface RetrievalService {
+
+    List<RagRetrieveResponse.RagNode> retrieve(String query, List<Long> knowledgeBaseIds);
+
+    /**
+     * retrieve 的非阻塞版本，共用缓存与合并；失败时同样以空列表完成，不会异常完成。
+     */
+    CompletableFuture<List<RagRetrieveResponse.RagNode>> retrieveAsync(String query, List<Long> knowledgeBaseIds);
+
+    void evictKnowledgeBase(Long knowledgeBaseId);
+}
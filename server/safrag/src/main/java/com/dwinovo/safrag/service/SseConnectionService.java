@@ -0,0 +1,67 @@
+package com.dwinovo.safrag.service;
+
+import com.dwinovo.safrag.pojo.SseConnectionInfo;
+import java.util.List;
+
+/**
+ * 进行中对话流连接的登记处：定期发心跳，关闭空闲或超过最长时长的连接，停机时等待连接排空。
+ */
+public interface SseConnectionService {
+
+    /**
+     * 是否接受新的对话流；停机排空期间为 false，断线重连接回进行中的流不受影响。
+     */
+    boolean isAccepting();
+
+    /**
+     * 登记一个连接，返回连接 ID。
+     */
+    String register(Long userId, String endpoint, Connection connection);
+
+    /**
+     * 连接结束时调用，可重复调用。
+     */
+    void unregister(String id);
+
+    List<SseConnectionInfo> list();
+
+    /**
+     * 管理端主动关闭一个连接，连接不存在时返回 false。
+     */
+    boolean close(String id);
+
+    enum CloseReason {
+        IDLE("生成长时间没有输出，已中止"),
+        MAX_DURATION("连接已达到最长时长，请重新连接"),
+        ADMIN("连接已被管理员关闭"),
+        SHUTDOWN("服务正在停机，请稍后重试");
+
+        private final String message;
+
+        CloseReason(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * 由各对话流实现，回调可能运行在调度线程上，不能阻塞。
+     */
+    interface Connection {
+
+        /**
+         * 最近一次写出事件的时间（System.nanoTime），心跳不计入。
+         */
+        long lastActivityNanos();
+
+        /**
+         * 写一条 SSE 注释保活；写出失败即按断开处理，半开连接借此被发现。
+         */
+        void heartbeat();
+
+        void close(CloseReason reason);
+    }
+}
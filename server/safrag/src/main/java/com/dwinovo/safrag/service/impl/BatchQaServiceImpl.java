@@ -0,0 +1,304 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.pojo.BatchQaResult;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import com.dwinovo.safrag.service.BatchQaService;
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
+import com.dwinovo.safrag.service.ModelRouterService;
+import com.dwinovo.safrag.service.RetrievalService;
+import com.dwinovo.safrag.utils.ChatMetrics;
+import com.dwinovo.safrag.utils.ChatResponses;
+import com.dwinovo.safrag.utils.ContextPacker;
+import com.dwinovo.safrag.utils.Deadline;
+import com.dwinovo.safrag.utils.NoContextShortCircuit;
+import com.dwinovo.safrag.utils.RagPromptBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * 批量问答：按配置的并行度同时执行检索与生成，相同问题只检索一次，
+ * 每个问题完成后立即以 NDJSON 写回。
+ */
+@Slf4j
+@Service
+public class BatchQaServiceImpl implements BatchQaService {
+
+    private static final long NO_TIMEOUT_MS = 0L;
+
+    @Autowired
+    private ModelRouterService modelRouterService;
+
+    @Autowired
+    private RetrievalService retrievalService;
+
+    @Autowired
+    private KnowledgeBaseVisibilityService knowledgeBaseVisibilityService;
+
+    @Autowired
+    private ContextPacker contextPacker;
+
+    @Autowired
+    private RagPromptBuilder ragPromptBuilder;
+
+    @Autowired
+    private NoContextShortCircuit noContextShortCircuit;
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Autowired
+    @Qualifier("llmCircuitBreaker")
+    private CircuitBreaker llmCircuitBreaker;
+
+    @Autowired
+    @Qualifier("llmBulkhead")
+    private Bulkhead llmBulkhead;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.batch.max-questions:500}")
+    private int maxQuestions;
+
+    // 单个批量请求同时处理的问题数
+    @Value("${chat.batch.parallelism:4}")
+    private int parallelism;
+
+    // 所有批量请求合计同时调用模型的上限，为交互式对话保留模型并发
+    @Value("${chat.batch.max-concurrent:16}")
+    private int maxConcurrent;
+
+    // 单个问题从开始处理到生成结束的时限，超时的问题以错误结果返回；0 表示不限制
+    @Value("${chat.batch.question-timeout-ms:120000}")
+    private long questionTimeoutMs;
+
+    private Semaphore globalPermits;
+    private Counter okCounter;
+    private Counter errorCounter;
+    private Counter reusedRetrievalCounter;
+    private Counter shortCircuitCounter;
+
+    @PostConstruct
+    public void init() {
+        globalPermits = new Semaphore(Math.max(1, maxConcurrent), true);
+        okCounter = questionCounter(BatchQaResult.STATUS_OK);
+        errorCounter = questionCounter(BatchQaResult.STATUS_ERROR);
+        reusedRetrievalCounter = Counter.builder("chat.batch.retrieval.reused")
+                .description("批量问答中复用同批相同问题检索结果的次数")
+                .register(meterRegistry);
+        shortCircuitCounter = Counter.builder("chat.batch.no_context.short_circuit")
+                .description("批量问答中检索为空、未调用模型直接返回固定回答的问题数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public ResponseBodyEmitter answer(Long userId, List<String> questions, List<Long> knowledgeBaseIds) {
+        if (CollectionUtils.isEmpty(questions)) {
+            throw new BusinessException(StatusEnum.BATCH_QUESTIONS_EMPTY);
+        }
+        if (questions.size() > maxQuestions) {
+            throw new BusinessException(StatusEnum.BATCH_TOO_LARGE.getCode(),
+                    StatusEnum.BATCH_TOO_LARGE.getMessage() + "（" + maxQuestions + "）");
+        }
+        List<Long> visibleKnowledgeBaseIds = knowledgeBaseVisibilityService.filterVisible(userId, knowledgeBaseIds);
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(NO_TIMEOUT_MS);
+        AtomicBoolean closed = new AtomicBoolean();
+        emitter.onCompletion(() -> closed.set(true));
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(error -> closed.set(true));
+
+        List<String> batch = List.copyOf(questions);
+        chatExecutor.execute(() -> run(emitter, closed, batch, visibleKnowledgeBaseIds));
+        return emitter;
+    }
+
+    private void run(ResponseBodyEmitter emitter, AtomicBoolean closed, List<String> questions,
+                     List<Long> knowledgeBaseIds) {
+        int permits = Math.max(1, parallelism);
+        Semaphore local = new Semaphore(permits);
+        // 同一批内归一化后相同的问题共享一次检索
+        Map<String, CompletableFuture<List<RagRetrieveResponse.RagNode>>> retrievals = new ConcurrentHashMap<>();
+        try {
+            for (int i = 0; i < questions.size() && !closed.get(); i++) {
+                int index = i;
+                String question = questions.get(i);
+                local.acquire();
+                chatExecutor.execute(() -> {
+                    try {
+                        if (!closed.get()) {
+                            Runnable task = () -> write(emitter, closed,
+                                    answerOne(index, question, knowledgeBaseIds, retrievals, closed));
+                            if (questionTimeoutMs > 0) {
+                                Deadline.after(questionTimeoutMs).run(task);
+                            } else {
+                                task.run();
+                            }
+                        }
+                    } finally {
+                        local.release();
+                    }
+                });
+            }
+            // 等待仍在执行的问题全部完成
+            local.acquire(permits);
+            emitter.complete();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        } catch (IllegalStateException ignored) {
+            // 客户端已断开
+        }
+    }
+
+    private BatchQaResult answerOne(int index, String question, List<Long> knowledgeBaseIds,
+                                    Map<String, CompletableFuture<List<RagRetrieveResponse.RagNode>>> retrievals,
+                                    AtomicBoolean closed) {
+        long start = System.nanoTime();
+        BatchQaResult result = new BatchQaResult();
+        result.setIndex(index);
+        result.setQuestion(question);
+        if (!StringUtils.hasText(question)) {
+            return fail(result, "问题不能为空", start);
+        }
+        try {
+            List<RagRetrieveResponse.RagNode> nodes = retrieve(question, knowledgeBaseIds, retrievals).join();
+            List<ContextPacker.PackedContext> contexts = contextPacker.pack(nodes);
+            if (noContextShortCircuit.applies(knowledgeBaseIds, contexts)) {
+                shortCircuitCounter.increment();
+                result.setStatus(BatchQaResult.STATUS_OK);
+                result.setAnswer(noContextShortCircuit.answer());
+                result.setDocumentIds(List.of());
+                result.setLatencyMs(elapsedMs(start));
+                okCounter.increment();
+                return result;
+            }
+            List<org.springframework.ai.chat.messages.Message> prompt =
+                    ragPromptBuilder.messagesPacked(List.of(), question, contexts);
+
+            // 等待模型并发名额的时间也计入问题的时限
+            Deadline deadline = Deadline.current();
+            if (deadline == null) {
+                globalPermits.acquire();
+            } else if (!globalPermits.tryAcquire(deadline.remainingMillis(), TimeUnit.MILLISECONDS)) {
+                return fail(result, StatusEnum.DEADLINE_EXCEEDED.getMessage(), start);
+            }
+            String answer;
+            try {
+                if (closed.get()) {
+                    return fail(result, "客户端已断开", start);
+                }
+                Supplier<ChatResponse> call = () -> modelRouterService.call(prompt, question);
+                ChatResponse response = CircuitBreaker.decorateSupplier(llmCircuitBreaker,
+                        Bulkhead.decorateSupplier(llmBulkhead, call)).get();
+                chatMetrics.recordUsage(chatMetrics.tags(ChatResponses.model(response), knowledgeBaseIds.size()),
+                        ChatResponses.usage(response));
+                answer = ChatResponses.text(response);
+            } finally {
+                globalPermits.release();
+            }
+            result.setStatus(BatchQaResult.STATUS_OK);
+            result.setAnswer(answer);
+            result.setDocumentIds(contexts.stream().map(ContextPacker.PackedContext::documentId).distinct().toList());
+            result.setLatencyMs(elapsedMs(start));
+            okCounter.increment();
+            return result;
+        } catch (CallNotPermittedException | BulkheadFullException ex) {
+            return fail(result, "模型服务暂不可用，请稍后再试", start);
+        } catch (BusinessException ex) {
+            return fail(result, ex.getMessage(), start);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return fail(result, "处理被中断", start);
+        } catch (Exception ex) {
+            log.warn("批量问答第 {} 个问题处理失败", index, ex);
+            return fail(result, "生成回答失败", start);
+        }
+    }
+
+    private CompletableFuture<List<RagRetrieveResponse.RagNode>> retrieve(
+            String question, List<Long> knowledgeBaseIds,
+            Map<String, CompletableFuture<List<RagRetrieveResponse.RagNode>>> retrievals) {
+        String key = question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        CompletableFuture<List<RagRetrieveResponse.RagNode>> mine = new CompletableFuture<>();
+        CompletableFuture<List<RagRetrieveResponse.RagNode>> existing = retrievals.putIfAbsent(key, mine);
+        if (existing != null) {
+            reusedRetrievalCounter.increment();
+            return existing;
+        }
+        try {
+            // 检索失败时已按无上下文返回空列表
+            mine.complete(retrievalService.retrieve(question, knowledgeBaseIds));
+        } catch (RuntimeException ex) {
+            mine.completeExceptionally(ex);
+        }
+        return mine;
+    }
+
+    private BatchQaResult fail(BatchQaResult result, String message, long start) {
+        result.setStatus(BatchQaResult.STATUS_ERROR);
+        result.setError(message);
+        result.setLatencyMs(elapsedMs(start));
+        errorCounter.increment();
+        return result;
+    }
+
+    private void write(ResponseBodyEmitter emitter, AtomicBoolean closed, BatchQaResult result) {
+        try {
+            String line = objectMapper.writeValueAsString(result) + "\n";
+            // 多个问题并发完成，逐行写出避免交错
+            synchronized (emitter) {
+                emitter.send(line, MediaType.APPLICATION_NDJSON);
+            }
+        } catch (IOException | IllegalStateException ex) {
+            closed.set(true);
+        }
+    }
+
+    private long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    private Counter questionCounter(String outcome) {
+        return Counter.builder("chat.batch.questions")
+                .description("批量问答处理的问题数")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
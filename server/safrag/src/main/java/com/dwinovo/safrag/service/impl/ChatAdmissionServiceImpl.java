@@ -0,0 +1,183 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.pojo.AdmissionProperties;
+import com.dwinovo.safrag.service.ChatAdmissionService;
+import com.dwinovo.safrag.utils.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * 模型流准入控制：全局与单用户并发上限，超出部分进入有界队列。
+ * 队列按等级 priority 排序（数字越小越优先），同等级按到达顺序；
+ * 队首用户已达单用户上限时跳过它放行后面的请求，避免队头阻塞。
+ */
+@Slf4j
+@Service
+public class ChatAdmissionServiceImpl implements ChatAdmissionService {
+
+    private static final Comparator<AdmissionTicket> QUEUE_ORDER =
+            Comparator.<AdmissionTicket>comparingInt(t -> t.priority).thenComparingLong(t -> t.sequence);
+
+    @Autowired
+    private AdmissionProperties admissionProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final TreeSet<AdmissionTicket> queue = new TreeSet<>(QUEUE_ORDER);
+    private final Map<Long, Integer> activeByUser = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private int active;
+
+    private Timer waitTimer;
+    private Counter queueFullCounter;
+    private Counter timeoutCounter;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("chat.admission.queue.depth", this, s -> s.queueDepth())
+                .description("等待放行的模型流请求数")
+                .register(meterRegistry);
+        Gauge.builder("chat.admission.active", this, s -> s.activeCount())
+                .description("正在进行的模型流数量")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("chat.admission.wait")
+                .description("模型流请求从排队到放行的等待时间")
+                .register(meterRegistry);
+        queueFullCounter = Counter.builder("chat.admission.rejected")
+                .tag("reason", "queue_full")
+                .register(meterRegistry);
+        timeoutCounter = Counter.builder("chat.admission.rejected")
+                .tag("reason", "timeout")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Ticket enqueue(Long userId, int priority) {
+        AdmissionTicket ticket = new AdmissionTicket(userId, priority, sequence.incrementAndGet());
+        synchronized (this) {
+            if (!canAdmit(userId) && queue.size() >= admissionProperties.getMaxQueue()) {
+                queueFullCounter.increment();
+                throw new BusinessException(StatusEnum.TOO_MANY_REQUESTS);
+            }
+            queue.add(ticket);
+            drain();
+        }
+        return ticket;
+    }
+
+    private synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    private synchronized int activeCount() {
+        return active;
+    }
+
+    private boolean canAdmit(Long userId) {
+        return active < admissionProperties.getMaxConcurrent()
+                && activeByUser.getOrDefault(userId, 0) < admissionProperties.getMaxPerUser();
+    }
+
+    /**
+     * 按队列顺序放行所有当前可以放行的请求，调用方需持有锁。
+     */
+    private void drain() {
+        Iterator<AdmissionTicket> it = queue.iterator();
+        while (it.hasNext() && active < admissionProperties.getMaxConcurrent()) {
+            AdmissionTicket ticket = it.next();
+            if (!canAdmit(ticket.userId)) {
+                continue;
+            }
+            it.remove();
+            active++;
+            activeByUser.merge(ticket.userId, 1, Integer::sum);
+            ticket.admitted = true;
+            waitTimer.record(System.nanoTime() - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+            ticket.future.complete(null);
+        }
+    }
+
+    private synchronized void release(AdmissionTicket ticket) {
+        if (ticket.released) {
+            return;
+        }
+        ticket.released = true;
+        if (ticket.admitted) {
+            active--;
+            activeByUser.computeIfPresent(ticket.userId, (k, v) -> v > 1 ? v - 1 : null);
+            drain();
+        } else {
+            queue.remove(ticket);
+            ticket.future.cancel(false);
+        }
+    }
+
+    private class AdmissionTicket implements Ticket {
+
+        private final Long userId;
+        private final int priority;
+        private final long sequence;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        // 以下字段只在持有外部锁时读写
+        private boolean admitted;
+        private boolean released;
+
+        AdmissionTicket(Long userId, int priority, long sequence) {
+            this.userId = userId;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            // 排队时间不超过请求剩余的处理时限；已过期时立即按超时处理并归还票据
+            Deadline deadline = Deadline.current();
+            long maxWaitMs = admissionProperties.getMaxWaitMs();
+            if (deadline != null) {
+                maxWaitMs = Math.min(maxWaitMs, deadline.remainingMillis());
+            }
+            try {
+                future.get(maxWaitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                release();
+                // 释放前可能恰好被放行，此时名额已归还，仍按超时处理
+                timeoutCounter.increment();
+                log.info("用户 {} 的对话请求排队超时", userId);
+                if (deadline != null) {
+                    deadline.check();
+                }
+                throw new BusinessException(StatusEnum.TOO_MANY_REQUESTS);
+            } catch (InterruptedException ex) {
+                release();
+                throw ex;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+
+        @Override
+        public void release() {
+            ChatAdmissionServiceImpl.this.release(this);
+        }
+    }
+}
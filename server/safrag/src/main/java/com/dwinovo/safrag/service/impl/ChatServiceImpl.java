@@ -0,0 +1,956 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import com.dwinovo.safrag.service.ChatAdmissionService;
+import com.dwinovo.safrag.service.ChatService;
+import com.dwinovo.safrag.service.ConversationHistoryService;
+import com.dwinovo.safrag.service.ConversationService;
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
+import com.dwinovo.safrag.service.MessageService;
+import com.dwinovo.safrag.service.ModelRouterService;
+import com.dwinovo.safrag.service.RetrievalService;
+import com.dwinovo.safrag.service.SseConnectionService;
+import com.dwinovo.safrag.utils.ChatMetrics;
+import com.dwinovo.safrag.utils.ChatResponses;
+import com.dwinovo.safrag.utils.Deadline;
+import com.dwinovo.safrag.utils.NoContextShortCircuit;
+import com.dwinovo.safrag.utils.RagPromptBuilder;
+import com.dwinovo.safrag.utils.SseChunkCoalescer;
+import com.dwinovo.safrag.utils.SseOutbox;
+import com.dwinovo.safrag.utils.SseReplayBuffer;
+import com.dwinovo.safrag.utils.TokenCounter;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscription;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+@Slf4j
+@Service
+public class ChatServiceImpl implements ChatService {
+
+    private static final long DEFAULT_TIMEOUT_MS = 0L; // 不超时，交给客户端关闭
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_CANCELLED = "CANCELLED";
+    private static final String STATUS_FAILED = "FAILED";
+    private static final String CONNECTION_ENDPOINT = "stream";
+
+    @Autowired
+    private ModelRouterService modelRouterService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private RetrievalService retrievalService;
+
+    @Autowired
+    private ConversationHistoryService conversationHistoryService;
+
+    @Autowired
+    private KnowledgeBaseVisibilityService knowledgeBaseVisibilityService;
+
+    @Autowired
+    private ChatAdmissionService chatAdmissionService;
+
+    @Autowired
+    private SseConnectionService sseConnectionService;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Autowired
+    private TokenCounter tokenCounter;
+
+    @Autowired
+    private RagPromptBuilder ragPromptBuilder;
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    @Autowired
+    private NoContextShortCircuit noContextShortCircuit;
+
+    @Autowired
+    @Qualifier("llmCircuitBreaker")
+    private CircuitBreaker llmCircuitBreaker;
+
+    @Autowired
+    @Qualifier("llmBulkhead")
+    private Bulkhead llmBulkhead;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.prepare-timeout-ms:15000}")
+    private long prepareTimeoutMs;
+
+    @Value("${chat.stream.flush-interval-ms:40}")
+    private long flushIntervalMs;
+
+    @Value("${chat.stream.flush-bytes:256}")
+    private int flushBytes;
+
+    @Value("${chat.stream.checkpoint-interval-ms:2000}")
+    private long checkpointIntervalMs;
+
+    @Value("${chat.stream.replay-buffer-size:512}")
+    private int replayBufferSize;
+
+    // 所有连接都断开后继续生成的时长，期间重连可接回原来的生成
+    @Value("${chat.stream.resume-grace-ms:15000}")
+    private long resumeGraceMs;
+
+    // 生成结束后保留重放缓冲的时长
+    @Value("${chat.stream.replay-retention-ms:30000}")
+    private long replayRetentionMs;
+
+    // 每个连接发送队列的事件数上限，超出后按溢出策略处理
+    @Value("${chat.stream.outbox.max-events:64}")
+    private int outboxMaxEvents;
+
+    // 每个连接发送队列的字节上限，超出后断开该连接
+    @Value("${chat.stream.outbox.max-bytes:1048576}")
+    private long outboxMaxBytes;
+
+    // coalesce / drop / pause
+    @Value("${chat.stream.outbox.overflow:coalesce}")
+    private String outboxOverflowPolicy;
+
+    private SseOutbox.Overflow outboxOverflow;
+    private final AtomicLong outboxPendingBytes = new AtomicLong();
+    private DistributionSummary outboxOccupancy;
+
+    // 流 ID -> 流，用于按 Last-Event-ID 重连
+    private final ConcurrentHashMap<String, ChatStream> streamsById = new ConcurrentHashMap<>();
+    // 请求键 -> 仍在进行的流，用于合并重复提交的相同请求
+    private final ConcurrentHashMap<String, ChatStream> runningByRequest = new ConcurrentHashMap<>();
+
+    private Counter cancelledCounter;
+    private Counter tokensSavedCounter;
+    private Counter resumedCounter;
+    private Counter duplicateCounter;
+    private volatile double averageReplyTokens;
+
+    @PostConstruct
+    public void init() {
+        cancelledCounter = Counter.builder("chat.stream.cancelled")
+                .description("客户端断开后被取消的模型流数量")
+                .register(meterRegistry);
+        tokensSavedCounter = Counter.builder("chat.stream.cancelled.tokens.saved")
+                .description("因取消上游模型流而少生成的 token 数（估算）")
+                .register(meterRegistry);
+        outboxOverflow = SseOutbox.Overflow.valueOf(outboxOverflowPolicy.trim().toUpperCase(Locale.ROOT));
+        Gauge.builder("chat.stream.outbox.pending.bytes", outboxPendingBytes, AtomicLong::get)
+                .description("所有 SSE 连接发送队列中尚未写出的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        outboxOccupancy = DistributionSummary.builder("chat.stream.outbox.occupancy")
+                .description("事件入队后所在连接发送队列的长度")
+                .register(meterRegistry);
+        resumedCounter = Counter.builder("chat.stream.resumed")
+                .description("按 Last-Event-ID 接回进行中生成的重连次数")
+                .register(meterRegistry);
+        duplicateCounter = Counter.builder("chat.stream.duplicate.suppressed")
+                .description("相同请求重复提交时复用进行中生成的次数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public SseEmitter streamChat(Long userId, Long conversationId, String userInput, List<Long> knowledgeBaseIds,
+                                 String lastEventId) {
+        SseEmitter emitter = new SseEmitter(DEFAULT_TIMEOUT_MS);
+
+        // 断线重连：接回原来的生成并补发错过的事件，不重新检索和生成
+        if (StringUtils.hasText(lastEventId)) {
+            resume(emitter, userId, conversationId, lastEventId);
+            return emitter;
+        }
+
+        // 停机排空期间不再开始新的生成，客户端稍后重试会落到其他节点
+        if (!sseConnectionService.isAccepting()) {
+            sendError(emitter, StatusEnum.SERVICE_UNAVAILABLE.getCode(),
+                    SseConnectionService.CloseReason.SHUTDOWN.getMessage());
+            return emitter;
+        }
+
+        String requestKey = requestKey(userId, conversationId, userInput, knowledgeBaseIds);
+        ChatStream stream = new ChatStream(userId, conversationId, requestKey,
+                knowledgeBaseCount(knowledgeBaseIds), Deadline.current());
+        ChatStream running = runningByRequest.putIfAbsent(requestKey, stream);
+        if (running != null) {
+            // 相同请求仍在生成（如重复提交），从头重放而不是再生成一次
+            duplicateCounter.increment();
+            running.attach(emitter, 0L);
+            return emitter;
+        }
+        streamsById.put(stream.id, stream);
+        stream.attach(emitter, 0L);
+
+        // 立即告知客户端连接已就绪，后续准备工作在虚拟线程上进行，并带上请求的截止时间
+        stream.emit("message", "", MediaType.TEXT_PLAIN);
+
+        chatExecutor.execute(Deadline.wrap(() -> {
+            try {
+                ChatPreparation preparation = prepare(userId, conversationId, userInput, knowledgeBaseIds, stream.tags);
+                if (noContextShortCircuit.applies(preparation.knowledgeBaseIds(), preparation.nodes())) {
+                    answerWithoutModel(stream, noContextShortCircuit.answer());
+                    return;
+                }
+                List<org.springframework.ai.chat.messages.Message> prompt =
+                        ragPromptBuilder.messages(preparation.history(), userInput, preparation.nodes());
+                recordPromptSize(stream.tags, prompt);
+                if (admit(stream, preparation.priority())) {
+                    startStreaming(stream, prompt, userInput);
+                }
+            } catch (BusinessException ex) {
+                stream.endWithError(ex.getCode(), ex.getMessage());
+            } catch (CancellationException ex) {
+                // 排队期间客户端已断开
+            } catch (Exception ex) {
+                log.warn("准备对话 {} 时发生异常", conversationId, ex);
+                stream.endWithError(StatusEnum.SERVER_ERROR.getCode(), StatusEnum.SERVER_ERROR.getMessage());
+            }
+        }));
+        return emitter;
+    }
+
+    private void resume(SseEmitter emitter, Long userId, Long conversationId, String lastEventId) {
+        int separator = lastEventId.lastIndexOf(':');
+        ChatStream stream = separator > 0 ? streamsById.get(lastEventId.substring(0, separator)) : null;
+        long lastSeq = -1L;
+        if (stream != null) {
+            try {
+                lastSeq = Long.parseLong(lastEventId.substring(separator + 1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (stream == null || lastSeq < 0 || !stream.userId.equals(userId)
+                || !stream.conversationId.equals(conversationId)) {
+            // 流已结束并过期：结果已落库，由客户端重新拉取消息，而不是重新生成
+            sendError(emitter, StatusEnum.STREAM_EXPIRED.getCode(), StatusEnum.STREAM_EXPIRED.getMessage());
+            return;
+        }
+        resumedCounter.increment();
+        stream.attach(emitter, lastSeq);
+    }
+
+    private String requestKey(Long userId, Long conversationId, String userInput, List<Long> knowledgeBaseIds) {
+        String ids = knowledgeBaseIds == null ? "" : knowledgeBaseIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+        return userId + ":" + conversationId + ":" + ids + ":" + userInput;
+    }
+
+    /**
+     * 知识库权限与用户等级来自内存缓存，先同步过滤；归属校验、历史组装与知识库检索
+     * 互不依赖，并行执行并共享同一个截止时间（不超过请求剩余的处理时限）。检索失败或超时按无上下文处理；其余步骤失败则整体失败。
+     */
+    private ChatPreparation prepare(Long userId, Long conversationId, String userInput, List<Long> knowledgeBaseIds,
+                                    Tags tags) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Deadline.budget(prepareTimeoutMs));
+        // 客户端传入的知识库只保留当前用户可见的部分
+        int priority = knowledgeBaseVisibilityService.priorityOf(userId);
+        List<Long> visibleKnowledgeBaseIds = knowledgeBaseVisibilityService.filterVisible(userId, knowledgeBaseIds);
+        Future<Boolean> ownership =
+                chatExecutor.submit(Deadline.wrap(() -> conversationService.isOwner(userId, conversationId)));
+        Future<List<org.springframework.ai.chat.messages.Message>> history =
+                chatExecutor.submit(Deadline.wrap(() -> {
+                    long start = System.nanoTime();
+                    List<org.springframework.ai.chat.messages.Message> assembled =
+                            conversationHistoryService.assemble(conversationId, userInput);
+                    chatMetrics.recordHistoryLoad(tags, System.nanoTime() - start);
+                    return assembled;
+                }));
+        Future<List<RagRetrieveResponse.RagNode>> retrieval =
+                chatExecutor.submit(Deadline.wrap(() -> {
+                    long start = System.nanoTime();
+                    List<RagRetrieveResponse.RagNode> found = retrievalService.retrieve(userInput, visibleKnowledgeBaseIds);
+                    chatMetrics.recordRetrieval(tags, System.nanoTime() - start, found.size());
+                    return found;
+                }));
+        try {
+            if (!Boolean.TRUE.equals(ownership.get(remaining(deadline), TimeUnit.NANOSECONDS))) {
+                throw new BusinessException(StatusEnum.FORBIDDEN);
+            }
+            List<org.springframework.ai.chat.messages.Message> chatHistory =
+                    history.get(remaining(deadline), TimeUnit.NANOSECONDS);
+            List<RagRetrieveResponse.RagNode> nodes;
+            try {
+                nodes = retrieval.get(remaining(deadline), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException ex) {
+                log.warn("获取知识库上下文失败", ex);
+                nodes = Collections.emptyList();
+            }
+            // 未分配等级的用户 priority 为 0，排队时排在所有等级之后
+            return new ChatPreparation(chatHistory, nodes, visibleKnowledgeBaseIds,
+                    priority > 0 ? priority : Integer.MAX_VALUE);
+        } catch (TimeoutException ex) {
+            Deadline current = Deadline.current();
+            if (current != null) {
+                current.check();
+            }
+            throw new BusinessException(StatusEnum.SERVER_ERROR.getCode(), "准备对话上下文超时");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof BusinessException business) {
+                throw business;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            // 任一步骤失败时中断其余仍在执行的步骤
+            ownership.cancel(true);
+            history.cancel(true);
+            retrieval.cancel(true);
+        }
+    }
+
+    /**
+     * 在调用模型前申请准入名额，按等级优先级排队；客户端已断开时返回 false。
+     */
+    private boolean admit(ChatStream stream, int priority) throws InterruptedException {
+        ChatAdmissionService.Ticket ticket = chatAdmissionService.enqueue(stream.userId, priority);
+        stream.ticket = ticket;
+        if (stream.closed.get()) {
+            ticket.release();
+            return false;
+        }
+        ticket.await();
+        return !stream.closed.get();
+    }
+
+    private void startStreaming(ChatStream stream, List<org.springframework.ai.chat.messages.Message> prompt,
+                                String question) {
+        // 先写入占位消息，生成过程中定期检查点，结束时写入最终状态
+        stream.messageId = messageService.startStreamingMessage(stream.conversationId, "assistant");
+        if (stream.closed.get()) {
+            stream.finish(STATUS_CANCELLED);
+            return;
+        }
+
+        Flux<String> flux = modelRouterService.stream(prompt, question, stream.deadline)
+                // 模型熔断或并发已满时立即失败，不占用准入名额等待
+                .transformDeferred(BulkheadOperator.of(llmBulkhead))
+                .transformDeferred(CircuitBreakerOperator.of(llmCircuitBreaker))
+                .doOnNext(response -> {
+                    stream.routedTo(ChatResponses.model(response));
+                    Usage usage = ChatResponses.usage(response);
+                    if (usage != null) {
+                        stream.usage = usage;
+                    }
+                })
+                .mapNotNull(ChatResponses::text);
+
+        // 分片写入重放缓冲并发给当前连接；连接全部断开且超过宽限期后才取消上游订阅
+        SseChunkCoalescer coalescer = new SseChunkCoalescer(
+                data -> stream.emit("message", data, MediaType.TEXT_PLAIN),
+                Schedulers.parallel(), flushIntervalMs, flushBytes, stream::cancel);
+        stream.coalescer = coalescer;
+
+        DemandSubscriber subscription = flux.doOnNext(chunk -> {
+            if (stream.firstTokenNanos == 0L) {
+                stream.firstTokenNanos = System.nanoTime();
+                chatMetrics.recordTimeToFirstToken(stream.modelTags(), stream.firstTokenNanos - stream.startNanos);
+            }
+            stream.buffer.append(chunk);
+            coalescer.append(chunk);
+            stream.maybeCheckpoint();
+        }).doOnError(error -> {
+            stream.finished = true;
+            coalescer.flush();
+            chatExecutor.execute(() -> stream.finish(STATUS_FAILED));
+            if (error instanceof CallNotPermittedException || error instanceof BulkheadFullException) {
+                stream.endWithError(StatusEnum.SERVICE_UNAVAILABLE.getCode(), "模型服务暂不可用，请稍后再试");
+            } else if (error instanceof BusinessException business) {
+                stream.endWithError(business.getCode(), business.getMessage());
+            } else {
+                log.warn("对话 {} 生成回答失败", stream.conversationId, error);
+                stream.endWithError(StatusEnum.SERVER_ERROR.getCode(), "生成回答失败");
+            }
+        }).doOnComplete(() -> {
+            stream.finished = true;
+            coalescer.flush();
+            // 计数与落库会阻塞，不占用投递模型分片的 reactor 线程
+            chatExecutor.execute(() -> {
+                int replyTokens = tokenCounter.count(stream.buffer.toString());
+                recordReplyTokens(replyTokens);
+                chatMetrics.recordUsage(stream.modelTags(), stream.usage);
+                if (stream.firstTokenNanos != 0L) {
+                    chatMetrics.recordThroughput(stream.modelTags(), replyTokens,
+                            System.nanoTime() - stream.firstTokenNanos);
+                }
+                // 客户端收到 done 后会重新拉取消息列表，因此需先落库
+                stream.finish(STATUS_COMPLETED);
+                stream.end("done", "[DONE]", MediaType.TEXT_PLAIN);
+            });
+        }).doFinally(signal -> stream.releaseAdmission()).subscribeWith(new DemandSubscriber(stream));
+        stream.bind(subscription);
+    }
+
+    /**
+     * 不占用准入名额、不调用模型，固定回答落库后作为一个分片发出，客户端看到的事件与正常生成一致。
+     */
+    private void answerWithoutModel(ChatStream stream, String answer) {
+        if (stream.closed.get()) {
+            return;
+        }
+        messageService.addMessage(stream.userId, stream.conversationId, "assistant", answer);
+        conversationHistoryService.refreshSummaryAsync(stream.conversationId);
+        chatMetrics.recordNoContextShortCircuit(stream.tags);
+        stream.recordOutcome(ChatMetrics.OUTCOME_SHORT_CIRCUIT);
+        stream.buffer.append(answer);
+        stream.emit("message", answer, MediaType.TEXT_PLAIN);
+        stream.end("done", "[DONE]", MediaType.TEXT_PLAIN);
+    }
+
+    private Counter outboxOverflowCounter(String action) {
+        return Counter.builder("chat.stream.outbox.overflow")
+                .description("SSE 发送队列溢出的处理次数")
+                .tag("policy", outboxOverflow.name().toLowerCase(Locale.ROOT))
+                .tag("action", action)
+                .register(meterRegistry);
+    }
+
+    private void recordPromptSize(Tags tags, List<org.springframework.ai.chat.messages.Message> prompt) {
+        int chars = 0;
+        int tokens = 0;
+        for (org.springframework.ai.chat.messages.Message message : prompt) {
+            String text = message.getText();
+            if (text != null) {
+                chars += text.length();
+                tokens += tokenCounter.count(text);
+            }
+        }
+        chatMetrics.recordPrompt(tags, chars, tokens);
+    }
+
+    private int knowledgeBaseCount(List<Long> knowledgeBaseIds) {
+        return knowledgeBaseIds == null ? 0 : (int) knowledgeBaseIds.stream().filter(Objects::nonNull).distinct().count();
+    }
+
+    private synchronized void recordReplyTokens(int tokens) {
+        averageReplyTokens = averageReplyTokens == 0 ? tokens : averageReplyTokens * 0.9 + tokens * 0.1;
+    }
+
+    /**
+     * 按近期完整回复的平均长度估算取消后少生成的 token 数。
+     */
+    private void recordCancellation(String partial) {
+        cancelledCounter.increment();
+        double saved = averageReplyTokens - tokenCounter.count(partial);
+        if (saved > 0) {
+            tokensSavedCounter.increment(saved);
+        }
+    }
+
+    private static Map<String, Object> errorData(int code, String message) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("code", code);
+        data.put("message", message);
+        return data;
+    }
+
+    private void sendError(SseEmitter emitter, int code, String message) {
+        try {
+            emitter.send(SseEmitter.event().name("error").data(errorData(code, message), MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException | IllegalStateException ignored) {
+            // 客户端已断开
+        }
+    }
+
+    private long remaining(long deadline) {
+        return Math.max(0L, deadline - System.nanoTime());
+    }
+
+    /**
+     * 按连接的发送队列控制对模型的请求量：PAUSE 策略下逐个请求分片，积压达到上限时暂停，
+     * 回落后由发送线程恢复；其他策略不限制请求量。
+     */
+    private class DemandSubscriber extends BaseSubscriber<String> {
+
+        private final ChatStream stream;
+        private final AtomicBoolean waiting = new AtomicBoolean();
+
+        DemandSubscriber(ChatStream stream) {
+            this.stream = stream;
+            stream.demand = this;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            if (outboxOverflow == SseOutbox.Overflow.PAUSE) {
+                request(1);
+            } else {
+                requestUnbounded();
+            }
+        }
+
+        @Override
+        protected void hookOnNext(String chunk) {
+            if (outboxOverflow != SseOutbox.Overflow.PAUSE) {
+                return;
+            }
+            if (!stream.pressured()) {
+                request(1);
+                return;
+            }
+            waiting.set(true);
+            // 置位后再检查一次，避免与发送线程的恢复通知错过
+            if (!stream.pressured()) {
+                resume();
+            }
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            // 已在 doOnError 中处理
+        }
+
+        void resume() {
+            if (waiting.compareAndSet(true, false) && !isDisposed()) {
+                request(1);
+            }
+        }
+    }
+
+    private record ChatPreparation(List<org.springframework.ai.chat.messages.Message> history,
+                                   List<RagRetrieveResponse.RagNode> nodes,
+                                   List<Long> knowledgeBaseIds,
+                                   int priority) {
+    }
+
+    /**
+     * 单次流式对话的状态。事件带序号写入重放缓冲后发给当前所有连接；连接全部断开超过宽限期
+     * 才释放上游订阅，并以对应状态结束助手消息。
+     */
+    private class ChatStream implements SseOutbox.Listener {
+
+        private final String id = UUID.randomUUID().toString().replace("-", "");
+        private final Long userId;
+        private final Long conversationId;
+        private final String requestKey;
+        private final int knowledgeBaseCount;
+        // 路由之前各阶段的标签
+        private final Tags tags;
+        // 路由选定端点后带实际模型的标签
+        private volatile Tags modelTags;
+        // 发起请求时的截止时间，重连接回的连接沿用它；为 null 时不限制生成时长
+        private final Deadline deadline;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean outcomeRecorded = new AtomicBoolean();
+        private volatile long firstTokenNanos;
+        // 模型在最后一个分片返回的用量
+        private volatile Usage usage;
+        private final SseReplayBuffer replay = new SseReplayBuffer(replayBufferSize);
+        // 以下字段由 this 保护
+        // 当前连接的发送队列；发送线程回调时会移除元素，因此使用写时复制列表
+        private final List<SseOutbox> subscribers = new CopyOnWriteArrayList<>();
+        // 各连接在连接管理器中的 ID
+        private final Map<SseOutbox, String> connectionIds = new ConcurrentHashMap<>();
+        // 已发出的 message 内容，重放缓冲不够时整体补发
+        private final StringBuilder emitted = new StringBuilder();
+        private long lastMessageSeq;
+        private SseReplayBuffer.Event terminal;
+        private Disposable pendingCancel;
+        private final StringBuffer buffer = new StringBuffer();
+        private final AtomicReference<Disposable> subscription = new AtomicReference<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean finalized = new AtomicBoolean();
+        private final AtomicBoolean checkpointing = new AtomicBoolean();
+        private volatile Long messageId;
+        private volatile SseChunkCoalescer coalescer;
+        private volatile DemandSubscriber demand;
+        private volatile ChatAdmissionService.Ticket ticket;
+        private volatile long lastCheckpointNanos = System.nanoTime();
+        // 模型流已正常结束或出错
+        private volatile boolean finished;
+
+        ChatStream(Long userId, Long conversationId, String requestKey, int knowledgeBaseCount, Deadline deadline) {
+            this.userId = userId;
+            this.conversationId = conversationId;
+            this.requestKey = requestKey;
+            this.knowledgeBaseCount = knowledgeBaseCount;
+            this.tags = chatMetrics.tags(knowledgeBaseCount);
+            this.deadline = deadline;
+        }
+
+        void routedTo(String model) {
+            if (model != null && modelTags == null) {
+                modelTags = chatMetrics.tags(model, knowledgeBaseCount);
+            }
+        }
+
+        /**
+         * 未调用模型（如检索为空直接回答、准备阶段失败）时沿用路由之前的标签。
+         */
+        Tags modelTags() {
+            Tags routed = modelTags;
+            return routed != null ? routed : tags;
+        }
+
+        void recordOutcome(String outcome) {
+            if (outcomeRecorded.compareAndSet(false, true)) {
+                chatMetrics.recordDuration(modelTags(), System.nanoTime() - startNanos, outcome);
+            }
+        }
+
+        void bind(Disposable disposable) {
+            subscription.set(disposable);
+            // 准备期间流已取消，立即取消
+            if (closed.get()) {
+                disposable.dispose();
+            }
+        }
+
+        /**
+         * 加入一个连接：先补发 lastSeq 之后的事件，流已结束时补发完即关闭连接。
+         */
+        synchronized void attach(SseEmitter emitter, long lastSeq) {
+            if (closed.get()) {
+                sendError(emitter, StatusEnum.STREAM_EXPIRED.getCode(), StatusEnum.STREAM_EXPIRED.getMessage());
+                return;
+            }
+            SseOutbox outbox = new SseOutbox(emitter, chatExecutor, outboxMaxEvents, outboxMaxBytes,
+                    outboxOverflow, this);
+            emitter.onCompletion(() -> detach(outbox));
+            emitter.onTimeout(() -> detach(outbox));
+            emitter.onError(error -> detach(outbox));
+            List<SseReplayBuffer.Event> missed = replay.since(lastSeq);
+            if (missed == null) {
+                // 错过的事件已被覆盖：整体补发已生成内容，客户端用它替换而不是追加
+                outbox.offer(eventId(lastMessageSeq), "reset", emitted.toString(), MediaType.TEXT_PLAIN);
+                missed = terminal != null ? List.of(terminal) : List.of();
+            }
+            for (SseReplayBuffer.Event event : missed) {
+                offer(outbox, event);
+            }
+            if (terminal != null) {
+                outbox.finish();
+                return;
+            }
+            subscribers.add(outbox);
+            connectionIds.put(outbox, sseConnectionService.register(userId, CONNECTION_ENDPOINT, connection(outbox)));
+            if (pendingCancel != null) {
+                pendingCancel.dispose();
+                pendingCancel = null;
+            }
+        }
+
+        /**
+         * 事件只进入各连接的发送队列，不在调用线程上阻塞写出。
+         */
+        synchronized void emit(String name, Object data, MediaType mediaType) {
+            if (terminal != null || closed.get()) {
+                return;
+            }
+            SseReplayBuffer.Event event = replay.append(name, data, mediaType);
+            if ("message".equals(name)) {
+                emitted.append(data);
+                lastMessageSeq = event.seq();
+            }
+            for (SseOutbox outbox : subscribers) {
+                offer(outbox, event);
+            }
+        }
+
+        /**
+         * 发出最后一个事件并关闭所有连接；重放缓冲再保留一段时间供晚到的重连补发。
+         */
+        void end(String name, Object data, MediaType mediaType) {
+            synchronized (this) {
+                if (terminal != null || closed.get()) {
+                    return;
+                }
+                terminal = replay.append(name, data, mediaType);
+                recordOutcome("done".equals(name) ? ChatMetrics.OUTCOME_COMPLETE : ChatMetrics.OUTCOME_ERROR);
+                for (SseOutbox outbox : subscribers) {
+                    offer(outbox, terminal);
+                    outbox.finish();
+                    unregister(outbox);
+                }
+                subscribers.clear();
+                if (pendingCancel != null) {
+                    pendingCancel.dispose();
+                    pendingCancel = null;
+                }
+            }
+            runningByRequest.remove(requestKey, this);
+            Schedulers.parallel().schedule(() -> streamsById.remove(id, this),
+                    replayRetentionMs, TimeUnit.MILLISECONDS);
+        }
+
+        void endWithError(int code, String message) {
+            end("error", errorData(code, message), MediaType.APPLICATION_JSON);
+        }
+
+        synchronized void detach(SseOutbox outbox) {
+            outbox.close();
+            unregister(outbox);
+            if (subscribers.remove(outbox)) {
+                if (subscribers.isEmpty()) {
+                    scheduleCancel();
+                }
+                // 断开的可能正是积压的连接，若上游在等待则恢复
+                onDrained(outbox);
+            }
+        }
+
+        /**
+         * PAUSE 策略下任一连接积压达到上限时，暂停向模型请求新的分片。
+         */
+        boolean pressured() {
+            for (SseOutbox outbox : subscribers) {
+                if (outbox.isPressured()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void onOverflow(String action) {
+            outboxOverflowCounter(action).increment();
+        }
+
+        @Override
+        public void onBacklogChange(long deltaBytes) {
+            outboxPendingBytes.addAndGet(deltaBytes);
+        }
+
+        @Override
+        public void onDrained(SseOutbox outbox) {
+            DemandSubscriber current = demand;
+            if (current != null) {
+                current.resume();
+            }
+        }
+
+        @Override
+        public void onClosed(SseOutbox outbox) {
+            // 写出失败或积压溢出：与客户端断开同样处理，客户端可重连补发
+            detach(outbox);
+        }
+
+        /**
+         * 调用方需持有 this；取消总是异步执行，避免与分片合并器互相等待锁。
+         */
+        private void scheduleCancel() {
+            if (terminal != null || pendingCancel != null || closed.get()) {
+                return;
+            }
+            pendingCancel = Schedulers.parallel().schedule(this::cancelIfDetached,
+                    Math.max(0L, resumeGraceMs), TimeUnit.MILLISECONDS);
+        }
+
+        private void cancelIfDetached() {
+            synchronized (this) {
+                pendingCancel = null;
+                if (!subscribers.isEmpty() || terminal != null || !closed.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+            release();
+        }
+
+        /**
+         * 立即取消生成并关闭所有连接，只生效一次。
+         */
+        void cancel() {
+            List<SseOutbox> remaining;
+            synchronized (this) {
+                if (!closed.compareAndSet(false, true)) {
+                    return;
+                }
+                remaining = new ArrayList<>(subscribers);
+                subscribers.clear();
+            }
+            for (SseOutbox outbox : remaining) {
+                outbox.finish();
+                unregister(outbox);
+            }
+            release();
+        }
+
+        /**
+         * 连接管理器中止整个生成：先向所有连接发出错误事件，再取消上游。
+         */
+        void abort(int code, String message) {
+            endWithError(code, message);
+            cancel();
+        }
+
+        /**
+         * 连接管理器断开单个连接：写完已入队的事件后关闭，生成继续进行，客户端可带 Last-Event-ID 重连续传。
+         */
+        synchronized void disconnect(SseOutbox outbox) {
+            if (subscribers.remove(outbox)) {
+                outbox.finish();
+                unregister(outbox);
+                if (subscribers.isEmpty()) {
+                    scheduleCancel();
+                }
+                onDrained(outbox);
+            }
+        }
+
+        private void unregister(SseOutbox outbox) {
+            sseConnectionService.unregister(connectionIds.remove(outbox));
+        }
+
+        /**
+         * 超过最长时长只断开该连接；空闲（生成卡住）、管理端关闭与停机则中止整个生成。
+         */
+        private SseConnectionService.Connection connection(SseOutbox outbox) {
+            return new SseConnectionService.Connection() {
+                @Override
+                public long lastActivityNanos() {
+                    return outbox.lastOfferNanos();
+                }
+
+                @Override
+                public void heartbeat() {
+                    outbox.heartbeat();
+                }
+
+                @Override
+                public void close(SseConnectionService.CloseReason reason) {
+                    if (reason == SseConnectionService.CloseReason.MAX_DURATION) {
+                        disconnect(outbox);
+                    } else {
+                        abort(StatusEnum.SERVICE_UNAVAILABLE.getCode(), reason.getMessage());
+                    }
+                }
+            };
+        }
+
+        private void release() {
+            recordOutcome(ChatMetrics.OUTCOME_CANCELLED);
+            streamsById.remove(id, this);
+            runningByRequest.remove(requestKey, this);
+            SseChunkCoalescer pendingChunks = coalescer;
+            if (pendingChunks != null) {
+                pendingChunks.discard();
+            }
+            releaseAdmission();
+            Disposable disposable = subscription.get();
+            if (disposable != null && !disposable.isDisposed()) {
+                disposable.dispose();
+                if (!finished) {
+                    recordCancellation(buffer.toString());
+                }
+            }
+            // 回调可能运行在 reactor 或容器线程上，落库交给虚拟线程
+            if (messageId != null) {
+                chatExecutor.execute(() -> finish(STATUS_CANCELLED));
+            }
+        }
+
+        private String eventId(long seq) {
+            return id + ":" + seq;
+        }
+
+        private void offer(SseOutbox outbox, SseReplayBuffer.Event event) {
+            outbox.offer(eventId(event.seq()), event.name(), event.data(), event.mediaType());
+            outboxOccupancy.record(outbox.size());
+        }
+
+        void releaseAdmission() {
+            ChatAdmissionService.Ticket current = ticket;
+            if (current != null) {
+                current.release();
+            }
+        }
+
+        /**
+         * 距上次检查点超过间隔时，异步把已生成内容写回占位消息；同一时间只有一个检查点在执行。
+         */
+        void maybeCheckpoint() {
+            Long id = messageId;
+            if (id == null || checkpointIntervalMs <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastCheckpointNanos < TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMs)
+                    || !checkpointing.compareAndSet(false, true)) {
+                return;
+            }
+            lastCheckpointNanos = now;
+            String snapshot = buffer.toString();
+            chatExecutor.execute(() -> {
+                try {
+                    messageService.checkpointStreamingMessage(id, snapshot);
+                } catch (Exception ex) {
+                    log.warn("写入助手消息 {} 的检查点失败", id, ex);
+                } finally {
+                    checkpointing.set(false);
+                }
+            });
+        }
+
+        void finish(String status) {
+            Long id = messageId;
+            if (id == null || !finalized.compareAndSet(false, true)) {
+                return;
+            }
+            String content = buffer.toString();
+            try {
+                if (messageService.finishStreamingMessage(id, content, status)) {
+                    conversationHistoryService.refreshSummaryAsync(conversationId);
+                }
+            } catch (Exception ex) {
+                log.warn("保存助手消息 {} 时发生异常", id, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.mapper.ConversationSummaryMapper;
+import com.dwinovo.safrag.mapper.MessageMapper;
+import com.dwinovo.safrag.pojo.ConversationSummary;
+import com.dwinovo.safrag.pojo.HistoryProperties;
+import com.dwinovo.safrag.pojo.Message;
+import com.dwinovo.safrag.service.ConversationHistoryService;
+import com.dwinovo.safrag.service.ModelRouterService;
+import com.dwinovo.safrag.utils.ChatResponses;
+import com.dwinovo.safrag.utils.TokenCounter;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+@Slf4j
+@Service
+public class ConversationHistoryServiceImpl implements ConversationHistoryService {
+
+    private static final String SUMMARY_PREFIX = "以下是此前对话的摘要，可作为理解上下文的参考：\n";
+    private static final String SUMMARY_INSTRUCTION = String.join("\n",
+            "你负责维护一段对话的滚动摘要。",
+            "请将“已有摘要”与“新增对话”合并为一份新的摘要，要求：",
+            "1. 保留用户的关键问题、已给出的结论、约定和未解决的事项；",
+            "2. 去掉寒暄与重复内容，不要编造；",
+            "3. 使用中文，直接输出摘要正文。");
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Autowired
+    private ConversationSummaryMapper conversationSummaryMapper;
+
+    @Autowired
+    private HistoryProperties historyProperties;
+
+    @Autowired
+    private TokenCounter tokenCounter;
+
+    @Autowired
+    private ModelRouterService modelRouterService;
+
+    @Autowired
+    @Qualifier("llmCircuitBreaker")
+    private CircuitBreaker llmCircuitBreaker;
+
+    @Autowired
+    @Qualifier("llmBulkhead")
+    private Bulkhead llmBulkhead;
+
+    @Autowired
+    @Qualifier("summaryExecutor")
+    private ThreadPoolTaskExecutor summaryExecutor;
+
+    // 正在刷新摘要的对话，避免同一对话并发折叠
+    private final Set<Long> refreshing = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public List<org.springframework.ai.chat.messages.Message> assemble(Long conversationId, String currentInput) {
+        // 归属校验由调用方负责，以便与检索等步骤并行执行
+        if (conversationId == null) {
+            throw new BusinessException(StatusEnum.SERVER_ERROR);
+        }
+
+        ConversationSummary summary = historyProperties.isSummaryEnabled()
+                ? conversationSummaryMapper.findByConversationId(conversationId)
+                : null;
+        List<Message> recent = messageMapper.listRecentByConversationId(conversationId, historyProperties.getMaxMessages());
+        if (recent == null) {
+            recent = Collections.emptyList();
+        }
+        // 前端会先保存本轮用户消息再发起流式请求，本轮问题会随知识片段单独发送，这里去掉避免重复
+        if (!recent.isEmpty() && currentInput != null) {
+            Message latest = recent.get(0);
+            if ("user".equalsIgnoreCase(latest.getRole()) && currentInput.equals(latest.getContent())) {
+                recent = recent.subList(1, recent.size());
+            }
+        }
+
+        int budget = historyProperties.getMaxTokens();
+        String summaryText = null;
+        if (summary != null && StringUtils.hasText(summary.getSummary())) {
+            summaryText = SUMMARY_PREFIX + summary.getSummary();
+            budget -= summary.getTokenCount() != null ? summary.getTokenCount() : tokenCounter.count(summary.getSummary());
+        }
+        List<Message> window = selectWindow(recent, coveredUntil(summary), budget);
+
+        List<org.springframework.ai.chat.messages.Message> chatHistory = new ArrayList<>(window.size() + 1);
+        if (summaryText != null) {
+            chatHistory.add(new SystemMessage(summaryText));
+        }
+        for (Message m : window) {
+            if ("user".equalsIgnoreCase(m.getRole())) {
+                chatHistory.add(new UserMessage(m.getContent()));
+            } else if ("assistant".equalsIgnoreCase(m.getRole())) {
+                chatHistory.add(new AssistantMessage(m.getContent()));
+            } else if ("system".equalsIgnoreCase(m.getRole())) {
+                chatHistory.add(new SystemMessage(m.getContent()));
+            }
+        }
+        return chatHistory;
+    }
+
+    @Override
+    public void refreshSummaryAsync(Long conversationId) {
+        if (conversationId == null || !historyProperties.isSummaryEnabled()) {
+            return;
+        }
+        if (!refreshing.add(conversationId)) {
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    refreshSummary(conversationId);
+                } catch (Exception ex) {
+                    log.warn("刷新对话 {} 的摘要失败", conversationId, ex);
+                } finally {
+                    refreshing.remove(conversationId);
+                }
+            });
+        } catch (Exception ex) {
+            refreshing.remove(conversationId);
+            log.warn("提交对话 {} 的摘要任务失败", conversationId, ex);
+        }
+    }
+
+    /**
+     * 把滑出 token 窗口、且尚未进入摘要的旧消息折叠进滚动摘要。
+     */
+    private void refreshSummary(Long conversationId) {
+        ConversationSummary summary = conversationSummaryMapper.findByConversationId(conversationId);
+        long coveredUntil = coveredUntil(summary);
+        List<Message> recent = messageMapper.listRecentByConversationId(conversationId, historyProperties.getMaxMessages());
+        if (recent == null || recent.isEmpty()) {
+            return;
+        }
+        int budget = historyProperties.getMaxTokens();
+        if (summary != null && summary.getTokenCount() != null) {
+            budget -= summary.getTokenCount();
+        }
+        List<Message> window = selectWindow(recent, coveredUntil, budget);
+        // 窗口内最早的一条消息之前的内容都需要进入摘要
+        long windowStartId = window.isEmpty() ? recent.get(0).getId() + 1 : window.get(0).getId();
+        if (windowStartId <= coveredUntil + 1) {
+            return;
+        }
+        List<Message> toFold = messageMapper.listRange(conversationId, coveredUntil, windowStartId,
+                historyProperties.getSummaryBatchSize());
+        if (toFold == null || toFold.isEmpty()) {
+            return;
+        }
+
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("已有摘要：\n")
+                .append(summary != null && StringUtils.hasText(summary.getSummary()) ? summary.getSummary() : "（无）")
+                .append("\n\n新增对话：\n");
+        for (Message m : toFold) {
+            if (m.getRole() == null || m.getContent() == null) {
+                continue;
+            }
+            prompt.append("user".equalsIgnoreCase(m.getRole()) ? "用户：" : "助手：")
+                    .append(m.getContent())
+                    .append("\n");
+        }
+        prompt.append("\n请输出不超过 ").append(historyProperties.getSummaryMaxTokens()).append(" 个 token 的新摘要。");
+
+        Supplier<String> call = () -> ChatResponses.text(modelRouterService.call(
+                List.of(new SystemMessage(SUMMARY_INSTRUCTION), new UserMessage(prompt.toString())), null));
+        String content = CircuitBreaker.decorateSupplier(llmCircuitBreaker,
+                Bulkhead.decorateSupplier(llmBulkhead, call)).get();
+        if (!StringUtils.hasText(content)) {
+            return;
+        }
+        ConversationSummary updated = new ConversationSummary();
+        updated.setConversationId(conversationId);
+        updated.setSummary(content.trim());
+        updated.setLastMessageId(toFold.get(toFold.size() - 1).getId());
+        updated.setTokenCount(tokenCounter.count(updated.getSummary()));
+        conversationSummaryMapper.upsert(updated);
+    }
+
+    /**
+     * 从最新消息往前累加，直到 token 预算用完或遇到已被摘要覆盖的消息，返回按时间正序的窗口。
+     */
+    private List<Message> selectWindow(List<Message> recentDesc, long coveredUntil, int budget) {
+        List<Message> window = new ArrayList<>();
+        int used = 0;
+        for (Message m : recentDesc) {
+            if (m.getId() != null && m.getId() <= coveredUntil) {
+                break;
+            }
+            if (m.getRole() == null || m.getContent() == null || m.getContent().isEmpty()) {
+                continue;
+            }
+            int tokens = tokenCounter.count(m.getContent());
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            window.add(m);
+        }
+        Collections.reverse(window);
+        return window;
+    }
+
+    private long coveredUntil(ConversationSummary summary) {
+        return summary != null && summary.getLastMessageId() != null ? summary.getLastMessageId() : 0L;
+    }
+}
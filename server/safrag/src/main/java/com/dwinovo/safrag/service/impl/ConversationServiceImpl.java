@@ -3,6 +3,7 @@ package com.dwinovo.safrag.service.impl;
 import com.dwinovo.safrag.common.BusinessException;
 import com.dwinovo.safrag.common.StatusEnum;
 import com.dwinovo.safrag.mapper.ConversationMapper;
+import com.dwinovo.safrag.mapper.ConversationSummaryMapper;
 import com.dwinovo.safrag.mapper.MessageMapper;
 import com.dwinovo.safrag.pojo.Conversation;
 import com.dwinovo.safrag.service.ConversationService;
@@ -21,6 +22,9 @@ public class ConversationServiceImpl implements ConversationService {
     @Autowired
     private MessageMapper messageMapper;
 
+    @Autowired
+    private ConversationSummaryMapper conversationSummaryMapper;
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public Long createConversation(Long userId, String title) {
@@ -49,6 +53,7 @@ public class ConversationServiceImpl implements ConversationService {
         
         // 先删除该会话的所有消息
         messageMapper.deleteByConversationId(conversationId);
+        conversationSummaryMapper.deleteByConversationId(conversationId);
         
         // 再删除会话本身
         int n = conversationMapper.deleteByIdAndUserId(conversationId, userId);
@@ -73,7 +78,12 @@ public class ConversationServiceImpl implements ConversationService {
         int n = conversationMapper.updateTitleByIdAndUserId(conversationId, userId, newTitle);
         return n > 0;
     }
-}
-
-
 
+    @Override
+    public boolean isOwner(Long userId, Long conversationId) {
+        if (userId == null || conversationId == null) {
+            return false;
+        }
+        return conversationMapper.countByIdAndUserId(conversationId, userId) > 0;
+    }
+}
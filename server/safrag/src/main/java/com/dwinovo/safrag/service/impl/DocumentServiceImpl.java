@@ -5,45 +5,28 @@ import com.dwinovo.safrag.common.StatusEnum;
 import com.dwinovo.safrag.mapper.DocumentMapper;
 import com.dwinovo.safrag.mapper.NodeMapper;
 import com.dwinovo.safrag.pojo.Document;
-import com.dwinovo.safrag.pojo.Node;
-import com.dwinovo.safrag.pojo.RagIngestResponse;
-import com.dwinovo.safrag.pojo.RagIngestRequest;
-import com.dwinovo.safrag.pojo.S3Properties;
 import com.dwinovo.safrag.service.DocumentService;
+import com.dwinovo.safrag.service.IngestionJobService;
+import com.dwinovo.safrag.service.KeywordIndexService;
+import com.dwinovo.safrag.service.RetrievalService;
 import com.dwinovo.safrag.utils.OSSUtils;
-import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import com.dwinovo.safrag.utils.RagClient;
 import java.util.List;
-import java.util.Map;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.net.URISyntaxException;
-import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.CollectionUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.util.UriComponentsBuilder;
 
 @Slf4j
 @Service
 public class DocumentServiceImpl implements DocumentService {
 
     private static final String DEFAULT_STATUS = "PENDING";
-    private static final String STATUS_PROCESSING = "PROCESSING";
-    private static final String STATUS_COMPLETED = "COMPLETED";
     private static final String STATUS_FAILED = "FAILED";
 
     @Autowired
@@ -56,13 +39,16 @@ public class DocumentServiceImpl implements DocumentService {
     private OSSUtils ossUtils;
 
     @Autowired
-    private S3Properties s3Properties;
+    private IngestionJobService ingestionJobService;
 
-    @Value("${rag.server.host:}")
-    private String ragServerHost;
+    @Autowired
+    private RetrievalService retrievalService;
+
+    @Autowired
+    private KeywordIndexService keywordIndexService;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private RagClient ragClient;
 
     @Override
     public Document uploadDocument(Long knowledgeBaseId, MultipartFile file) {
@@ -83,7 +69,7 @@ public class DocumentServiceImpl implements DocumentService {
             throw new BusinessException(StatusEnum.SERVER_ERROR.getCode(), "保存文档信息失败");
         }
 
-        CompletableFuture.runAsync(() -> processIngestion(document));
+        ingestionJobService.enqueue(document);
 
         return document;
     }
@@ -108,6 +94,8 @@ public class DocumentServiceImpl implements DocumentService {
         }
         // 删掉节点
         nodeMapper.deleteByDocumentId(documentId);
+        // 删掉切片任务
+        ingestionJobService.remove(documentId);
         if (StringUtils.hasText(document.getFileUrl())) {
             try {
                 // 删掉OSS
@@ -118,8 +106,45 @@ public class DocumentServiceImpl implements DocumentService {
         }
         // 删掉RAG侧数据（如果有的话）
         deleteNodesFromRag(document.getKnowledgeBaseId(), documentId);
+        evictAfterCommit(document.getKnowledgeBaseId(), documentId);
+    }
 
+    /**
+     * 事务提交后再更新关键词索引与检索缓存：回滚时索引不会丢掉仍然存在的文档，
+     * 并发检索也不会在提交前把旧数据重新写回缓存
+     */
+    private void evictAfterCommit(Long knowledgeBaseId, Long documentId) {
+        Runnable evict = () -> {
+            keywordIndexService.removeDocument(documentId);
+            retrievalService.evictKnowledgeBase(knowledgeBaseId);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict.run();
+            }
+        });
     }
+
+    @Override
+    public Document retryIngestion(Long knowledgeBaseId, Long documentId) {
+        Document document = getDocument(knowledgeBaseId, documentId);
+        if (document == null) {
+            throw new BusinessException(StatusEnum.FORBIDDEN);
+        }
+        if (!STATUS_FAILED.equals(document.getProcessingStatus())) {
+            throw new BusinessException(StatusEnum.SERVER_ERROR.getCode(), "仅失败的文档可以重新切片");
+        }
+        if (!ingestionJobService.retry(documentId)) {
+            throw new BusinessException(StatusEnum.SERVER_ERROR.getCode(), "切片任务正在执行中");
+        }
+        return documentMapper.findById(documentId);
+    }
+
     @Override
     public Document getDocument(Long knowledgeBaseId, Long documentId) {
         if (knowledgeBaseId == null || documentId == null) {
@@ -133,164 +158,21 @@ public class DocumentServiceImpl implements DocumentService {
     }
     
 
-    private void processIngestion(Document document) {
-        Long documentId = document.getId();
-        if (documentId == null) {
-            return;
-        }
-        updateDocumentStatus(documentId, STATUS_PROCESSING);
-        if (restTemplate == null) {
-            log.warn("RestTemplate 未初始化，跳过文档 {} 的切片。", documentId);
-            updateDocumentStatus(documentId, STATUS_FAILED);
-            return;
-        }
-        if (!StringUtils.hasText(ragServerHost)) {
-            log.warn("RAG Server 未配置，跳过文档 {} 的切片。", documentId);
-            updateDocumentStatus(documentId, STATUS_FAILED);
-            return;
-        }
-        String ingestUrl = ragServerHost.endsWith("/") ? ragServerHost + "ingest" : ragServerHost + "/ingest";
-
-        String ragDocumentUrl = resolveRagDocumentUrl(document.getFileUrl());
-        RagIngestRequest payload = RagIngestRequest.builder()
-                .knowledgeBaseId(document.getKnowledgeBaseId())
-                .documentUrl(ragDocumentUrl)
-                .documentId(documentId)
-                .build();
-
-        try {
-            // DEBUG LOGGING
-            ObjectMapper mapper = new ObjectMapper();
-            String jsonPayload = mapper.writeValueAsString(payload);
-            log.info("RAG Ingest Request -> URL: {}, Payload: {}", ingestUrl, jsonPayload);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-            HttpEntity<RagIngestRequest> entity = new HttpEntity<>(payload, headers);
-            
-            ResponseEntity<RagIngestResponse> response = restTemplate.postForEntity(ingestUrl, entity, RagIngestResponse.class);
-            
-            if (!response.getStatusCode().is2xxSuccessful()) {
-                log.error("RAG Ingest Failed -> Status: {}, Body: {}", response.getStatusCode(), response.getBody());
-                updateDocumentStatus(documentId, STATUS_FAILED);
-                return;
-            }
-
-            RagIngestResponse body = response.getBody();
-            if (body == null || body.getCode() == null || body.getCode() != 200) {
-                updateDocumentStatus(documentId, STATUS_FAILED);
-                return;
-            }
-
-            if (body.getData() == null || body.getData().getDocument() == null) {
-                insertNodes(documentId, Collections.<RagIngestResponse.RagNode>emptyList());
-            } else {
-                List<RagIngestResponse.RagNode> ragNodes = body.getData().getDocument().getNodes();
-                insertNodes(documentId, ragNodes != null ? ragNodes : Collections.<RagIngestResponse.RagNode>emptyList());
-            }
-
-            updateDocumentStatus(documentId, STATUS_COMPLETED);
-        } catch (HttpClientErrorException httpError) {
-            log.error("RAG Ingest HTTP Error -> Status: {}, ResponseBody: {}", httpError.getStatusCode(), httpError.getResponseBodyAsString());
-            updateDocumentStatus(documentId, STATUS_FAILED);
-        } catch (Exception ex) {
-            log.error("处理文档 {} 的 RAG 切片时发生异常", documentId, ex);
-            updateDocumentStatus(documentId, STATUS_FAILED);
-        }
-    }
-
-
-    private void insertNodes(Long documentId, List<RagIngestResponse.RagNode> ragNodes) {
-        List<Node> nodes = ragNodes.stream()
-                .filter(node -> StringUtils.hasText(node.getContext()) && StringUtils.hasText(node.getNodeId()))
-                .map(node -> {
-                    Node item = new Node();
-                    item.setId(node.getNodeId());
-                    item.setDocumentId(documentId);
-                    item.setContext(node.getContext());
-                    return item;
-                })
-                .collect(Collectors.toList());
-        if (!nodes.isEmpty()) {
-            nodeMapper.insertBatch(nodes);
-        }
-    }
-
-    private void updateDocumentStatus(Long documentId, String status) {
-        Document toUpdate = new Document();
-        toUpdate.setId(documentId);
-        toUpdate.setProcessingStatus(status);
-        try {
-            documentMapper.update(toUpdate);
-        } catch (Exception ex) {
-            log.warn("更新文档 {} 状态为 {} 失败", documentId, status, ex);
-        }
-    }
-
     private void deleteNodesFromRag(Long knowledgeBaseId, Long documentId) {
         if (knowledgeBaseId == null || documentId == null) {
             return;
         }
-        if (restTemplate == null) {
-            log.warn("RestTemplate 未初始化，跳过文档 {} 的 RAG 节点删除。", documentId);
-            return;
-        }
-        String nodesUrl = ragServerHost+"/nodes";
-        if (!StringUtils.hasText(nodesUrl)) {
+        if (!ragClient.isConfigured()) {
             log.warn("RAG Server 未配置，跳过文档 {} 的 RAG 节点删除。", documentId);
             return;
         }
 
         try {
-            URI uri = UriComponentsBuilder.fromUriString(nodesUrl)
-                    .queryParam("knowledge_base_id", knowledgeBaseId)
-                    .queryParam("document_id", documentId)
-                    .build(true)
-                    .toUri();
-            restTemplate.delete(uri);
+            ragClient.deleteNodes(knowledgeBaseId, documentId);
         } catch (HttpClientErrorException httpError) {
 
         } catch (Exception ex) {
             log.error("删除文档 {} 的 RAG 节点时发生异常", documentId, ex);
         }
     }
-
-    private String resolveRagDocumentUrl(String fileUrl) {
-        if (!StringUtils.hasText(fileUrl)) {
-            return fileUrl;
-        }
-
-        String internalEndpoint = s3Properties != null ? s3Properties.getEndpoint() : null;
-        if (!StringUtils.hasText(internalEndpoint)) {
-            return fileUrl;
-        }
-
-        String publicEndpoint = s3Properties != null ? s3Properties.getPublicEndpoint() : null;
-        String normalizedInternal = trimTrailingSlash(internalEndpoint);
-        if (StringUtils.hasText(publicEndpoint)) {
-            String normalizedPublic = trimTrailingSlash(publicEndpoint);
-            if (fileUrl.startsWith(normalizedPublic)) {
-                return normalizedInternal + fileUrl.substring(normalizedPublic.length());
-            }
-        }
-
-        try {
-            URI uri = new URI(fileUrl);
-            String host = uri.getHost();
-            if ("localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host)) {
-                return normalizedInternal + uri.getRawPath();
-            }
-        } catch (URISyntaxException ignored) {
-        }
-
-        return fileUrl;
-    }
-
-    private String trimTrailingSlash(String value) {
-        if (!StringUtils.hasText(value)) {
-            return value;
-        }
-        return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
-    }
 }
@@ -0,0 +1,417 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.mapper.DocumentMapper;
+import com.dwinovo.safrag.mapper.IngestionJobMapper;
+import com.dwinovo.safrag.mapper.NodeMapper;
+import com.dwinovo.safrag.pojo.Document;
+import com.dwinovo.safrag.pojo.IngestionJob;
+import com.dwinovo.safrag.pojo.IngestionProperties;
+import com.dwinovo.safrag.pojo.Node;
+import com.dwinovo.safrag.pojo.RagIngestRequest;
+import com.dwinovo.safrag.pojo.RagIngestResponse;
+import com.dwinovo.safrag.pojo.S3Properties;
+import com.dwinovo.safrag.service.IngestionJobService;
+import com.dwinovo.safrag.service.KeywordIndexService;
+import com.dwinovo.safrag.service.RetrievalService;
+import com.dwinovo.safrag.utils.Deadline;
+import com.dwinovo.safrag.utils.RagClient;
+import jakarta.annotation.PostConstruct;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+@Slf4j
+@Service
+public class IngestionJobServiceImpl implements IngestionJobService {
+
+    private static final String STATUS_PENDING = "PENDING";
+    private static final String STATUS_PROCESSING = "PROCESSING";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_FAILED = "FAILED";
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    @Autowired
+    private IngestionJobMapper ingestionJobMapper;
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private NodeMapper nodeMapper;
+
+    @Autowired
+    private S3Properties s3Properties;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private RetrievalService retrievalService;
+
+    @Autowired
+    private KeywordIndexService keywordIndexService;
+
+    @Autowired
+    @Qualifier("ingestionExecutor")
+    private ThreadPoolTaskExecutor ingestionExecutor;
+
+    @Autowired
+    private RagClient ragClient;
+
+    // 空闲槽位，保证同时执行的切片任务不超过线程数
+    private Semaphore slots;
+
+    // 启动恢复完成前不派发
+    private volatile boolean recovered;
+
+    // 本节点正在执行的任务，定期续租
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        slots = new Semaphore(Math.max(1, ingestionProperties.getWorkerThreads()));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        try {
+            int recovered = ingestionJobMapper.recoverProcessing(ingestionProperties.getLeaseSeconds());
+            int backfilled = ingestionJobMapper.insertMissing(ingestionProperties.getMaxAttempts());
+            if (recovered > 0 || backfilled > 0) {
+                log.info("恢复中断的切片任务 {} 个，补建遗留文档任务 {} 个", recovered, backfilled);
+            }
+        } catch (Exception ex) {
+            log.warn("恢复切片任务失败", ex);
+        }
+        recovered = true;
+        dispatch();
+    }
+
+    /**
+     * 为本节点执行中的任务续租，并回收租约已过期的任务（执行它们的节点已停止）。
+     */
+    @Scheduled(fixedDelayString = "${ingestion.lease-renew-interval-ms:30000}")
+    public void renewLeases() {
+        if (!recovered) {
+            return;
+        }
+        try {
+            if (!running.isEmpty()) {
+                ingestionJobMapper.renewLease(List.copyOf(running));
+            }
+            int expired = ingestionJobMapper.recoverProcessing(ingestionProperties.getLeaseSeconds());
+            if (expired > 0) {
+                log.info("租约过期的切片任务 {} 个已重新排队", expired);
+                dispatch();
+            }
+        } catch (Exception ex) {
+            log.warn("切片任务续租失败", ex);
+        }
+    }
+
+    @Override
+    public void enqueue(Document document) {
+        if (document == null || document.getId() == null) {
+            return;
+        }
+        IngestionJob job = new IngestionJob();
+        job.setDocumentId(document.getId());
+        job.setMaxAttempts(ingestionProperties.getMaxAttempts());
+        ingestionJobMapper.insert(job);
+        dispatch();
+    }
+
+    @Override
+    public boolean retry(Long documentId) {
+        int affected = ingestionJobMapper.resetByDocumentId(documentId, ingestionProperties.getMaxAttempts());
+        if (affected <= 0) {
+            IngestionJob existing = ingestionJobMapper.findByDocumentId(documentId);
+            if (existing != null) {
+                return false;
+            }
+            // 任务记录缺失（例如手动清理过），重新建一个
+            IngestionJob job = new IngestionJob();
+            job.setDocumentId(documentId);
+            job.setMaxAttempts(ingestionProperties.getMaxAttempts());
+            ingestionJobMapper.insert(job);
+        }
+        updateDocumentStatus(documentId, STATUS_PENDING);
+        dispatch();
+        return true;
+    }
+
+    @Override
+    public void remove(Long documentId) {
+        ingestionJobMapper.deleteByDocumentId(documentId);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${ingestion.poll-interval-ms:2000}")
+    public synchronized void dispatch() {
+        if (!recovered) {
+            return;
+        }
+        int free = slots.availablePermits();
+        if (free <= 0) {
+            return;
+        }
+        List<IngestionJob> due;
+        try {
+            due = ingestionJobMapper.listDue(free);
+        } catch (Exception ex) {
+            log.warn("查询待执行的切片任务失败", ex);
+            return;
+        }
+        for (IngestionJob job : due) {
+            if (!slots.tryAcquire()) {
+                return;
+            }
+            int attempts = job.getAttempts() == null ? 0 : job.getAttempts();
+            if (ingestionJobMapper.claim(job.getId(), attempts) <= 0) {
+                slots.release();
+                continue;
+            }
+            job.setAttempts(attempts + 1);
+            running.add(job.getId());
+            try {
+                ingestionExecutor.execute(() -> {
+                    try {
+                        runJob(job);
+                    } finally {
+                        running.remove(job.getId());
+                        slots.release();
+                    }
+                });
+            } catch (TaskRejectedException ex) {
+                running.remove(job.getId());
+                slots.release();
+                // 不消耗重试次数，也不会在下次执行时触发重试前的清理
+                ingestionJobMapper.unclaim(job.getId());
+                log.warn("切片线程池拒绝任务 {}", job.getId());
+                return;
+            }
+        }
+    }
+
+    private void runJob(IngestionJob job) {
+        Long documentId = job.getDocumentId();
+        Document document = documentMapper.findById(documentId);
+        if (document == null) {
+            // 文档已被删除
+            ingestionJobMapper.deleteByDocumentId(documentId);
+            return;
+        }
+        updateDocumentStatus(documentId, STATUS_PROCESSING);
+        try {
+            // 超时后放弃本次尝试，按可重试失败处理；任务状态的更新不受时限约束
+            Deadline.after(ingestionProperties.getAttemptTimeoutMs()).run(() -> {
+                if (job.getAttempts() > 1) {
+                    // 上一次可能已部分写入，重试前先清理，保证幂等
+                    nodeMapper.deleteByDocumentId(documentId);
+                    keywordIndexService.removeDocument(documentId);
+                    deleteNodesFromRag(document.getKnowledgeBaseId(), documentId);
+                }
+                ingest(document);
+            });
+            if (ingestionJobMapper.markCompleted(job.getId(), job.getAttempts()) <= 0) {
+                if (ingestionJobMapper.findByDocumentId(documentId) != null) {
+                    // 租约已过期，任务被重新抢占；新的执行者重试前会清理本次写入，这里直接放弃结果
+                    log.warn("文档 {} 的切片任务已被重新抢占，放弃第 {} 次执行的结果", documentId, job.getAttempts());
+                    return;
+                }
+                // 切片期间文档被删除，任务记录已不存在，回收刚写入的节点
+                nodeMapper.deleteByDocumentId(documentId);
+                keywordIndexService.removeDocument(documentId);
+                deleteNodesFromRag(document.getKnowledgeBaseId(), documentId);
+                return;
+            }
+            updateDocumentStatus(documentId, STATUS_COMPLETED);
+            retrievalService.evictKnowledgeBase(document.getKnowledgeBaseId());
+        } catch (IngestionException ex) {
+            handleFailure(job, ex.getMessage(), ex.isRetryable(), ex.getCause());
+        } catch (Exception ex) {
+            handleFailure(job, ex.getClass().getSimpleName() + ": " + ex.getMessage(), true, ex);
+        }
+    }
+
+    private void handleFailure(IngestionJob job, String reason, boolean retryable, Throwable cause) {
+        Long documentId = job.getDocumentId();
+        String lastError = truncate(reason);
+        int maxAttempts = job.getMaxAttempts() != null ? job.getMaxAttempts() : ingestionProperties.getMaxAttempts();
+        if (retryable && job.getAttempts() < maxAttempts) {
+            long delay = backoffSeconds(job.getAttempts());
+            log.warn("文档 {} 第 {} 次切片失败，{} 秒后重试: {}", documentId, job.getAttempts(), delay, reason, cause);
+            if (ingestionJobMapper.markRetry(job.getId(), job.getAttempts(), delay, lastError) <= 0) {
+                log.warn("文档 {} 的切片任务已不由本次执行持有，忽略失败结果", documentId);
+                return;
+            }
+            updateDocumentStatus(documentId, STATUS_PENDING);
+        } else {
+            log.error("文档 {} 切片失败，已尝试 {} 次: {}", documentId, job.getAttempts(), reason, cause);
+            if (ingestionJobMapper.markFailed(job.getId(), job.getAttempts(), lastError) <= 0) {
+                log.warn("文档 {} 的切片任务已不由本次执行持有，忽略失败结果", documentId);
+                return;
+            }
+            updateDocumentStatus(documentId, STATUS_FAILED);
+        }
+    }
+
+    private long backoffSeconds(int attempts) {
+        long base = Math.max(1, ingestionProperties.getBackoffBaseSeconds());
+        long max = Math.max(base, ingestionProperties.getBackoffMaxSeconds());
+        int exponent = Math.min(Math.max(attempts - 1, 0), 20);
+        return Math.min(max, base << exponent);
+    }
+
+    private void ingest(Document document) {
+        Long documentId = document.getId();
+        if (!ragClient.isConfigured()) {
+            throw new IngestionException("RAG Server 未配置", false, null);
+        }
+
+        String ragDocumentUrl = resolveRagDocumentUrl(document.getFileUrl());
+        RagIngestRequest payload = RagIngestRequest.builder()
+                .knowledgeBaseId(document.getKnowledgeBaseId())
+                .documentUrl(ragDocumentUrl)
+                .documentId(documentId)
+                .build();
+        log.info("RAG Ingest Request -> documentId: {}, documentUrl: {}", documentId, ragDocumentUrl);
+
+        RagIngestResponse body;
+        try {
+            body = ragClient.ingest(payload);
+        } catch (HttpClientErrorException httpError) {
+            // 4xx 说明请求本身有问题，重试无意义
+            throw new IngestionException("RAG Ingest HTTP Error " + httpError.getStatusCode()
+                    + ": " + httpError.getResponseBodyAsString(), false, httpError);
+        } catch (HttpServerErrorException httpError) {
+            throw new IngestionException("RAG Ingest Failed -> Status: " + httpError.getStatusCode(), true, httpError);
+        }
+        if (body == null || body.getCode() == null || body.getCode() != 200) {
+            throw new IngestionException("RAG Ingest Failed -> Body: " + (body != null ? body.getMessage() : null), true, null);
+        }
+
+        if (body.getData() == null || body.getData().getDocument() == null) {
+            insertNodes(document, Collections.<RagIngestResponse.RagNode>emptyList());
+        } else {
+            List<RagIngestResponse.RagNode> ragNodes = body.getData().getDocument().getNodes();
+            insertNodes(document, ragNodes != null ? ragNodes : Collections.<RagIngestResponse.RagNode>emptyList());
+        }
+    }
+
+    private void insertNodes(Document document, List<RagIngestResponse.RagNode> ragNodes) {
+        Long documentId = document.getId();
+        List<Node> nodes = ragNodes.stream()
+                .filter(node -> StringUtils.hasText(node.getContext()) && StringUtils.hasText(node.getNodeId()))
+                .map(node -> {
+                    Node item = new Node();
+                    item.setId(node.getNodeId());
+                    item.setDocumentId(documentId);
+                    item.setContext(node.getContext());
+                    return item;
+                })
+                .collect(Collectors.toList());
+        if (!nodes.isEmpty()) {
+            nodeMapper.insertBatch(nodes);
+            keywordIndexService.indexNodes(document.getKnowledgeBaseId(), nodes);
+        }
+    }
+
+    private void deleteNodesFromRag(Long knowledgeBaseId, Long documentId) {
+        if (knowledgeBaseId == null || !ragClient.isConfigured()) {
+            return;
+        }
+        try {
+            ragClient.deleteNodes(knowledgeBaseId, documentId);
+        } catch (Exception ex) {
+            log.warn("重试前清理文档 {} 的 RAG 节点失败", documentId, ex);
+        }
+    }
+
+    private void updateDocumentStatus(Long documentId, String status) {
+        Document toUpdate = new Document();
+        toUpdate.setId(documentId);
+        toUpdate.setProcessingStatus(status);
+        try {
+            documentMapper.update(toUpdate);
+        } catch (Exception ex) {
+            log.warn("更新文档 {} 状态为 {} 失败", documentId, status, ex);
+        }
+    }
+
+    private String resolveRagDocumentUrl(String fileUrl) {
+        if (!StringUtils.hasText(fileUrl)) {
+            return fileUrl;
+        }
+
+        String internalEndpoint = s3Properties != null ? s3Properties.getEndpoint() : null;
+        if (!StringUtils.hasText(internalEndpoint)) {
+            return fileUrl;
+        }
+
+        String publicEndpoint = s3Properties != null ? s3Properties.getPublicEndpoint() : null;
+        String normalizedInternal = trimTrailingSlash(internalEndpoint);
+        if (StringUtils.hasText(publicEndpoint)) {
+            String normalizedPublic = trimTrailingSlash(publicEndpoint);
+            if (fileUrl.startsWith(normalizedPublic)) {
+                return normalizedInternal + fileUrl.substring(normalizedPublic.length());
+            }
+        }
+
+        try {
+            URI uri = new URI(fileUrl);
+            String host = uri.getHost();
+            if ("localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host)) {
+                return normalizedInternal + uri.getRawPath();
+            }
+        } catch (URISyntaxException ignored) {
+        }
+
+        return fileUrl;
+    }
+
+    private String trimTrailingSlash(String value) {
+        if (!StringUtils.hasText(value)) {
+            return value;
+        }
+        return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+    }
+
+    private String truncate(String value) {
+        if (value == null || value.length() <= MAX_ERROR_LENGTH) {
+            return value;
+        }
+        return value.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    private static class IngestionException extends RuntimeException {
+
+        private final boolean retryable;
+
+        IngestionException(String message, boolean retryable, Throwable cause) {
+            super(message, cause);
+            this.retryable = retryable;
+        }
+
+        boolean isRetryable() {
+            return retryable;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.mapper.NodeMapper;
+import com.dwinovo.safrag.pojo.Node;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import com.dwinovo.safrag.service.KeywordIndexService;
+import com.dwinovo.safrag.utils.KeywordTokenizer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * 基于 nodes 表的进程内 BM25 倒排索引，只在开启混合检索时加载。启动后分页全量加载，
+ * 之后随本节点的切片写入与文档删除增量更新；其他节点的写入与删除由定期全量重建同步，
+ * 因此多节点部署时索引最多落后一个重建周期。
+ */
+@Slf4j
+@Service
+public class KeywordIndexServiceImpl implements KeywordIndexService {
+
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    @Autowired
+    private NodeMapper nodeMapper;
+
+    @Autowired
+    private KeywordTokenizer keywordTokenizer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Value("${rag.hybrid.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rag.hybrid.bm25-k1:1.2}")
+    private double k1;
+
+    @Value("${rag.hybrid.bm25-b:0.75}")
+    private double b;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 以下两个字段由 lock 保护
+    private Index index = new Index();
+    // 重建期间本节点的增量更新，切换前在新索引上重放，避免被重建结果覆盖
+    private List<Consumer<Index>> pendingDuringRebuild;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("rag.keyword.index.nodes", this, s -> s.size())
+                .description("关键词索引中的节点数")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (enabled) {
+            chatExecutor.execute(this::rebuild);
+        }
+    }
+
+    /**
+     * 定期全量重建并整体替换，同步其他节点的切片写入与文档删除。
+     */
+    @Scheduled(initialDelayString = "${rag.hybrid.resync-interval-ms:300000}",
+            fixedDelayString = "${rag.hybrid.resync-interval-ms:300000}")
+    public void resync() {
+        if (enabled) {
+            chatExecutor.execute(this::rebuild);
+        }
+    }
+
+    @Override
+    public void indexNodes(Long knowledgeBaseId, List<Node> toIndex) {
+        if (!enabled || CollectionUtils.isEmpty(toIndex)) {
+            return;
+        }
+        apply(target -> {
+            for (Node node : toIndex) {
+                target.add(keywordTokenizer, knowledgeBaseId, node);
+            }
+        });
+    }
+
+    @Override
+    public void removeDocument(Long documentId) {
+        if (!enabled || documentId == null) {
+            return;
+        }
+        apply(target -> target.removeDocument(documentId));
+    }
+
+    @Override
+    public List<RagRetrieveResponse.RagNode> search(String query, List<Long> knowledgeBaseIds, int topK) {
+        if (!enabled || !ready || !StringUtils.hasText(query) || CollectionUtils.isEmpty(knowledgeBaseIds)
+                || topK <= 0) {
+            return Collections.emptyList();
+        }
+        Set<String> terms = new LinkedHashSet<>(keywordTokenizer.tokenize(query));
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<Long> allowed = new HashSet<>(knowledgeBaseIds);
+
+        lock.readLock().lock();
+        try {
+            Index current = index;
+            int total = current.nodes.size();
+            if (total == 0) {
+                return Collections.emptyList();
+            }
+            double avgLength = (double) current.totalLength / total;
+            Map<String, Double> scores = new HashMap<>();
+            for (String term : terms) {
+                Map<String, Integer> posting = current.postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                int df = posting.size();
+                double idf = Math.log(1 + (total - df + 0.5) / (df + 0.5));
+                for (Map.Entry<String, Integer> entry : posting.entrySet()) {
+                    IndexedNode node = current.nodes.get(entry.getKey());
+                    if (node == null || !allowed.contains(node.knowledgeBaseId())) {
+                        continue;
+                    }
+                    int tf = entry.getValue();
+                    double norm = k1 * (1 - b + b * node.length() / avgLength);
+                    scores.merge(entry.getKey(), idf * tf * (k1 + 1) / (tf + norm), Double::sum);
+                }
+            }
+
+            PriorityQueue<Map.Entry<String, Double>> top =
+                    new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                top.offer(entry);
+                if (top.size() > topK) {
+                    top.poll();
+                }
+            }
+            List<RagRetrieveResponse.RagNode> result = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                IndexedNode node = current.nodes.get(top.poll().getKey());
+                RagRetrieveResponse.RagNode hit = new RagRetrieveResponse.RagNode();
+                hit.setNodeId(node.id());
+                hit.setDocumentId(node.documentId());
+                hit.setContext(node.context());
+                result.add(hit);
+            }
+            Collections.reverse(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int size() {
+        lock.readLock().lock();
+        try {
+            return index.nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Consumer<Index> update) {
+        lock.writeLock().lock();
+        try {
+            update.accept(index);
+            if (pendingDuringRebuild != null) {
+                pendingDuringRebuild.add(update);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在锁外分页构建新索引，构建期间的增量更新记下来，切换时在新索引上重放。
+     */
+    private void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            pendingDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            Index fresh = new Index();
+            String afterId = null;
+            while (true) {
+                List<Node> page = nodeMapper.listForIndex(afterId, LOAD_PAGE_SIZE);
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                for (Node node : page) {
+                    fresh.add(keywordTokenizer, node.getKnowledgeBaseId(), node);
+                }
+                afterId = page.get(page.size() - 1).getId();
+            }
+            int count;
+            lock.writeLock().lock();
+            try {
+                for (Consumer<Index> update : pendingDuringRebuild) {
+                    update.accept(fresh);
+                }
+                index = fresh;
+                count = fresh.nodes.size();
+            } finally {
+                pendingDuringRebuild = null;
+                lock.writeLock().unlock();
+            }
+            if (!ready) {
+                ready = true;
+                log.info("关键词索引加载完成，共 {} 个节点，耗时 {} ms", count, System.currentTimeMillis() - started);
+            } else {
+                log.debug("关键词索引已重建，共 {} 个节点，耗时 {} ms", count, System.currentTimeMillis() - started);
+            }
+        } catch (Exception ex) {
+            lock.writeLock().lock();
+            try {
+                pendingDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (ready) {
+                log.warn("重建关键词索引失败，继续使用现有索引", ex);
+            } else {
+                log.warn("加载关键词索引失败，混合检索将只使用向量检索", ex);
+            }
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * 一份完整的倒排索引；共享的实例只在持有 lock 时访问，重建中的实例只有重建线程访问。
+     */
+    private static class Index {
+
+        // 词 -> (节点 ID -> 词频)
+        private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+        private final Map<String, IndexedNode> nodes = new HashMap<>();
+        private final Map<Long, Set<String>> nodesByDocument = new HashMap<>();
+        private long totalLength;
+
+        void add(KeywordTokenizer tokenizer, Long knowledgeBaseId, Node node) {
+            if (node == null || node.getId() == null || !StringUtils.hasText(node.getContext())) {
+                return;
+            }
+            remove(node.getId());
+            List<String> tokens = tokenizer.tokenize(node.getContext());
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String token : tokens) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+            IndexedNode indexed = new IndexedNode(node.getId(), node.getDocumentId(), knowledgeBaseId,
+                    node.getContext(), tokens.size(), frequencies.keySet().toArray(new String[0]));
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(node.getId(), entry.getValue());
+            }
+            nodes.put(node.getId(), indexed);
+            nodesByDocument.computeIfAbsent(node.getDocumentId(), k -> new HashSet<>()).add(node.getId());
+            totalLength += indexed.length();
+        }
+
+        void removeDocument(Long documentId) {
+            Set<String> ids = nodesByDocument.remove(documentId);
+            if (ids != null) {
+                for (String id : ids) {
+                    remove(id);
+                }
+            }
+        }
+
+        private void remove(String nodeId) {
+            IndexedNode existing = nodes.remove(nodeId);
+            if (existing == null) {
+                return;
+            }
+            for (String term : existing.terms()) {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting != null) {
+                    posting.remove(nodeId);
+                    if (posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+            Set<String> siblings = nodesByDocument.get(existing.documentId());
+            if (siblings != null) {
+                siblings.remove(nodeId);
+                if (siblings.isEmpty()) {
+                    nodesByDocument.remove(existing.documentId());
+                }
+            }
+            totalLength -= existing.length();
+        }
+    }
+
+    private record IndexedNode(String id, Long documentId, Long knowledgeBaseId, String context,
+                               int length, String[] terms) {
+    }
+}
@@ -7,9 +7,12 @@ import com.dwinovo.safrag.pojo.KnowledgeBase;
 import com.dwinovo.safrag.pojo.User;
 import com.dwinovo.safrag.mapper.UserMapper;
 import com.dwinovo.safrag.service.KnowledgeBaseService;
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -24,6 +27,9 @@ public class KnowledgeBaseServiceImpl implements KnowledgeBaseService {
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private KnowledgeBaseVisibilityService knowledgeBaseVisibilityService;
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public Long createKnowledgeBase(Long userId, String name, String description) {
@@ -38,6 +44,7 @@ public class KnowledgeBaseServiceImpl implements KnowledgeBaseService {
         if (n <= 0 || kb.getId() == null) {
             throw new BusinessException(StatusEnum.SERVER_ERROR);
         }
+        invalidateVisibilityAfterCommit();
         return kb.getId();
     }
 
@@ -48,9 +55,28 @@ public class KnowledgeBaseServiceImpl implements KnowledgeBaseService {
             throw new BusinessException(StatusEnum.SERVER_ERROR);
         }
         int n = knowledgeBaseMapper.deleteByIdAndUserId(id, userId);
+        if (n > 0) {
+            invalidateVisibilityAfterCommit();
+        }
         return n > 0;
     }
 
+    /**
+     * 事务提交后再失效可见性缓存，避免并发请求在提交前重新加载到旧数据
+     */
+    private void invalidateVisibilityAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            knowledgeBaseVisibilityService.invalidateKnowledgeBases();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                knowledgeBaseVisibilityService.invalidateKnowledgeBases();
+            }
+        });
+    }
+
     @Override
     public List<KnowledgeBase> listUserKnowledgeBases(Long userId) {
         if (userId == null) {
@@ -97,17 +123,22 @@ public class KnowledgeBaseServiceImpl implements KnowledgeBaseService {
 
     @Override
     @Transactional(rollbackFor = Exception.class)
-    public void updateKnowledgeBase(Long userId, Long id, String name, String description) {
+    public void updateKnowledgeBase(Long userId, Long id, String name, String description,
+                                    Boolean noContextShortCircuit) {
         if (userId == null) {
             throw new BusinessException(StatusEnum.UNAUTHORIZED);
         }
         if (id == null || name == null || name.isBlank()) {
             throw new BusinessException(StatusEnum.FORBIDDEN);
         }
-        int affected = knowledgeBaseMapper.updateByIdAndUserId(id, userId, name, description);
+        int affected = knowledgeBaseMapper.updateByIdAndUserId(id, userId, name, description, noContextShortCircuit);
         if (affected <= 0) {
             throw new BusinessException(StatusEnum.FORBIDDEN);
         }
+        if (noContextShortCircuit != null) {
+            // 无上下文策略随可见性快照缓存
+            invalidateVisibilityAfterCommit();
+        }
     }
 
     @Override
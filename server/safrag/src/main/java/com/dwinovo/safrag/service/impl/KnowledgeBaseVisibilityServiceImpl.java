@@ -0,0 +1,181 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.mapper.KnowledgeBaseMapper;
+import com.dwinovo.safrag.mapper.UserMapper;
+import com.dwinovo.safrag.pojo.KnowledgeBase;
+import com.dwinovo.safrag.pojo.User;
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * 对话链路上的知识库权限过滤。缓存全部知识库的所有者等级，按等级 priority 预计算可见集合，
+ * 每个 id 的判断为 O(1)；知识库增删与用户等级变化时失效，另有 TTL 兜底。
+ * 知识库的无上下文策略也随快照缓存。
+ */
+@Service
+public class KnowledgeBaseVisibilityServiceImpl implements KnowledgeBaseVisibilityService {
+
+    @Autowired
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Value("${kb.visibility.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private Cache<Long, Integer> userPriorities;
+
+    private volatile Snapshot snapshot;
+    // 每次失效自增；加载期间发生过失效则不保存加载结果
+    private final AtomicLong version = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        userPriorities = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    @Override
+    public int priorityOf(Long userId) {
+        if (userId == null) {
+            throw new BusinessException(StatusEnum.UNAUTHORIZED);
+        }
+        Integer priority = userPriorities.get(userId, id -> {
+            User user = userMapper.findById(id);
+            return user != null ? user.getPriority() : null;
+        });
+        if (priority == null) {
+            throw new BusinessException(StatusEnum.UNAUTHORIZED);
+        }
+        return priority;
+    }
+
+    @Override
+    public List<Long> filterVisible(Long userId, List<Long> knowledgeBaseIds) {
+        if (CollectionUtils.isEmpty(knowledgeBaseIds)) {
+            return Collections.emptyList();
+        }
+        int priority = priorityOf(userId);
+        Snapshot current = currentSnapshot();
+        Set<Long> visible = current.visibleTo(priority);
+        List<Long> result = new ArrayList<>(knowledgeBaseIds.size());
+        for (Long id : new LinkedHashSet<>(knowledgeBaseIds)) {
+            if (id != null && (visible.contains(id) || userId.equals(current.owners().get(id)))) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean shortCircuitsNoContext(List<Long> knowledgeBaseIds) {
+        if (CollectionUtils.isEmpty(knowledgeBaseIds)) {
+            return true;
+        }
+        Set<Long> optedOut = currentSnapshot().answerWithoutContext();
+        for (Long id : knowledgeBaseIds) {
+            if (optedOut.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void invalidateKnowledgeBases() {
+        version.incrementAndGet();
+        snapshot = null;
+    }
+
+    @Override
+    public void invalidateUser(Long userId) {
+        if (userId != null) {
+            userPriorities.invalidate(userId);
+        }
+        // 用户等级变化同时影响其名下知识库对他人的可见性
+        invalidateKnowledgeBases();
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null && !current.isExpired()) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && !current.isExpired()) {
+                return current;
+            }
+            long loadingVersion = version.get();
+            Map<Long, Long> owners = new HashMap<>();
+            Map<Long, Integer> ownerPriorities = new HashMap<>();
+            Set<Long> answerWithoutContext = new HashSet<>();
+            List<KnowledgeBase> rows = knowledgeBaseMapper.listOwnership();
+            if (rows != null) {
+                for (KnowledgeBase kb : rows) {
+                    owners.put(kb.getId(), kb.getUserId());
+                    ownerPriorities.put(kb.getId(), kb.getOwnerPriority());
+                    if (Boolean.FALSE.equals(kb.getNoContextShortCircuit())) {
+                        answerWithoutContext.add(kb.getId());
+                    }
+                }
+            }
+            current = new Snapshot(owners, ownerPriorities, answerWithoutContext, new ConcurrentHashMap<>(),
+                    System.nanoTime() + Duration.ofSeconds(ttlSeconds).toNanos());
+            if (loadingVersion == version.get()) {
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * answerWithoutContext：关闭了无上下文短路、检索为空时仍调用模型的知识库。
+     */
+    private record Snapshot(Map<Long, Long> owners, Map<Long, Integer> ownerPriorities,
+                            Set<Long> answerWithoutContext,
+                            ConcurrentHashMap<Integer, Set<Long>> byPriority, long expiresAt) {
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+
+        /**
+         * 他人名下、所有者无等级或等级不高于 priority（数字不小于）的知识库。
+         */
+        Set<Long> visibleTo(int priority) {
+            return byPriority.computeIfAbsent(priority, p -> {
+                Set<Long> ids = new HashSet<>();
+                for (Map.Entry<Long, Integer> entry : ownerPriorities.entrySet()) {
+                    Integer ownerPriority = entry.getValue();
+                    if (ownerPriority == null || ownerPriority >= p) {
+                        ids.add(entry.getKey());
+                    }
+                }
+                return Collections.unmodifiableSet(ids);
+            });
+        }
+    }
+}
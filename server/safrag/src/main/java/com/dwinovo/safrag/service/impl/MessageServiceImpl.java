@@ -3,16 +3,25 @@ package com.dwinovo.safrag.service.impl;
 import com.dwinovo.safrag.common.BusinessException;
 import com.dwinovo.safrag.common.StatusEnum;
 import com.dwinovo.safrag.mapper.ConversationMapper;
+import com.dwinovo.safrag.mapper.ConversationSummaryMapper;
 import com.dwinovo.safrag.mapper.MessageMapper;
 import com.dwinovo.safrag.pojo.Message;
 import com.dwinovo.safrag.service.MessageService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import java.util.List;
 
+@Slf4j
 @Service
 public class MessageServiceImpl implements MessageService {
 
+    private static final String STATUS_STREAMING = "STREAMING";
+
     @Autowired
     private ConversationMapper conversationMapper;
 
@@ -21,6 +30,12 @@ public class MessageServiceImpl implements MessageService {
     @Autowired
     private MessageMapper messageMapper;
 
+    @Autowired
+    private ConversationSummaryMapper conversationSummaryMapper;
+
+    @Value("${chat.stream.recovery-grace-ms:600000}")
+    private long recoveryGraceMs;
+
     @Override
     public Long addMessage(Long userId, Long conversationId, String role, String content) {
         if (userId == null || conversationId == null || role == null || role.isBlank() || content == null) {
@@ -50,6 +65,7 @@ public class MessageServiceImpl implements MessageService {
         if (count <= 0) {
             throw new BusinessException(StatusEnum.FORBIDDEN);
         }
+        conversationSummaryMapper.deleteByConversationId(conversationId);
         return messageMapper.deleteByConversationId(conversationId);
     }
 
@@ -64,6 +80,67 @@ public class MessageServiceImpl implements MessageService {
         }
         return messageMapper.listByConversationId(conversationId);
     }
-}
 
+    /**
+     * 流式生成开始时写入占位消息；归属校验由调用方在开始前完成。
+     */
+    @Override
+    public Long startStreamingMessage(Long conversationId, String role) {
+        if (conversationId == null || role == null || role.isBlank()) {
+            throw new BusinessException(StatusEnum.SERVER_ERROR);
+        }
+        Message m = new Message();
+        m.setConversationId(conversationId);
+        m.setRole(role);
+        m.setContent("");
+        m.setStatus(STATUS_STREAMING);
+        int n = messageMapper.insert(m);
+        if (n <= 0 || m.getId() == null) {
+            throw new BusinessException(StatusEnum.SERVER_ERROR);
+        }
+        return m.getId();
+    }
+
+    @Override
+    public void checkpointStreamingMessage(Long messageId, String content) {
+        if (messageId == null || content == null) {
+            return;
+        }
+        messageMapper.checkpointContent(messageId, content);
+    }
+
+    /**
+     * 以最终状态结束流式消息；没有任何内容时直接删除占位消息。
+     */
+    @Override
+    public boolean finishStreamingMessage(Long messageId, String content, String status) {
+        if (messageId == null) {
+            return false;
+        }
+        if (content == null || content.isEmpty()) {
+            messageMapper.deleteById(messageId);
+            return false;
+        }
+        return messageMapper.finishStreaming(messageId, content, status) > 0;
+    }
 
+    /**
+     * 只处理超过宽限期没有检查点的消息：滚动发布或扩容时其他节点仍在生成的回复不受影响。
+     * 启动时执行一次，之后定期执行，回收已宕机节点留下的消息。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${chat.stream.recovery-interval-ms:300000}",
+            fixedDelayString = "${chat.stream.recovery-interval-ms:300000}")
+    public void recoverStreamingMessages() {
+        long graceSeconds = Math.max(1L, recoveryGraceMs / 1000);
+        try {
+            int removed = messageMapper.deleteEmptyStreaming(graceSeconds);
+            int failed = messageMapper.failStreaming(graceSeconds);
+            if (removed > 0 || failed > 0) {
+                log.info("清理中断的流式消息：删除空占位 {} 条，标记失败 {} 条", removed, failed);
+            }
+        } catch (Exception ex) {
+            log.warn("清理中断的流式消息失败", ex);
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.pojo.ModelRouterProperties;
+import com.dwinovo.safrag.service.ModelRouterService;
+import com.dwinovo.safrag.utils.ChatResponses;
+import com.dwinovo.safrag.utils.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 在多个 OpenAI 兼容端点之间路由：每个端点维护 TTFT 与错误率的滑动平均，
+ * 连续失败的端点暂时摘除，冷却期过后放行一个请求探测。
+ * 未配置 chat.router.endpoints 时只有 spring.ai.openai.* 对应的默认模型一个端点。
+ */
+@Slf4j
+@Service
+public class ModelRouterServiceImpl implements ModelRouterService {
+
+    private static final String DEFAULT_ENDPOINT = "default";
+    // 本地部署的模型服务通常不校验密钥，但 OpenAiApi 要求非空
+    private static final String NO_API_KEY = "EMPTY";
+
+    @Autowired
+    private ChatModel chatModel;
+
+    @Autowired
+    private ModelRouterProperties routerProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Value("${spring.ai.openai.chat.options.stream-usage:false}")
+    private boolean streamUsage;
+
+    @Value("${spring.ai.openai.chat.options.model:unknown}")
+    private String defaultModel;
+
+    private List<Endpoint> endpoints;
+
+    @PostConstruct
+    public void init() {
+        List<Endpoint> built = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (ModelRouterProperties.Endpoint config : routerProperties.getEndpoints()) {
+            if (!config.isEnabled()) {
+                continue;
+            }
+            if (!StringUtils.hasText(config.getBaseUrl()) || !StringUtils.hasText(config.getModel())) {
+                throw new IllegalStateException("模型路由端点缺少 base-url 或 model: " + config.getName());
+            }
+            String name = StringUtils.hasText(config.getName()) ? config.getName() : config.getModel();
+            if (!names.add(name)) {
+                throw new IllegalStateException("模型路由端点名称重复: " + name);
+            }
+            built.add(new Endpoint(name, config.getTier(), config.getModel(), build(config)));
+        }
+        if (built.isEmpty()) {
+            built.add(new Endpoint(DEFAULT_ENDPOINT, null, defaultModel, chatModel));
+        }
+        endpoints = List.copyOf(built);
+        for (Endpoint endpoint : endpoints) {
+            Gauge.builder("chat.router.ttft.ewma", endpoint, Endpoint::ttftMs)
+                    .description("端点首个分片耗时的滑动平均")
+                    .baseUnit("milliseconds")
+                    .tag("endpoint", endpoint.name)
+                    .register(meterRegistry);
+            Gauge.builder("chat.router.error.rate", endpoint, Endpoint::errorRate)
+                    .description("端点错误率的滑动平均")
+                    .tag("endpoint", endpoint.name)
+                    .register(meterRegistry);
+            Gauge.builder("chat.router.ejected", endpoint, e -> e.isEjected(System.currentTimeMillis()) ? 1 : 0)
+                    .description("端点是否因连续失败被摘除")
+                    .tag("endpoint", endpoint.name)
+                    .register(meterRegistry);
+        }
+        log.info("模型路由端点: {}", endpoints.stream().map(e -> e.name).toList());
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(List<Message> prompt, String question, Deadline deadline) {
+        Flux<ChatResponse> routed = Flux.defer(() -> {
+            if (deadline != null) {
+                deadline.check();
+            }
+            return attempt(new Prompt(prompt), rank(question), 0, deadline);
+        });
+        if (deadline == null) {
+            return routed;
+        }
+        // 每个分片到达后按剩余时间重新计时，截止时间到达即取消上游
+        return routed
+                .timeout(Mono.defer(() -> Mono.delay(Duration.ofMillis(deadline.remainingMillis()))),
+                        response -> Mono.delay(Duration.ofMillis(deadline.remainingMillis())))
+                .onErrorMap(error -> error instanceof TimeoutException && deadline.isExpired(),
+                        error -> new BusinessException(StatusEnum.DEADLINE_EXCEEDED));
+    }
+
+    @Override
+    public ChatResponse call(List<Message> prompt, String question) {
+        Deadline deadline = Deadline.current();
+        List<Endpoint> ranked = rank(question);
+        RuntimeException last = null;
+        for (int i = 0; i < ranked.size(); i++) {
+            Endpoint endpoint = ranked.get(i);
+            if (deadline != null) {
+                deadline.check();
+            }
+            try {
+                ChatResponse response = callWithin(endpoint, new Prompt(prompt), deadline);
+                // 非流式调用的耗时包含整个生成过程，不计入 TTFT
+                endpoint.onSuccess(-1, routerProperties.getEwmaAlpha());
+                requestCounter(endpoint, "success").increment();
+                return routed(response, endpoint);
+            } catch (RuntimeException ex) {
+                if (ex instanceof BusinessException || isRequestError(ex)) {
+                    throw ex;
+                }
+                if (deadline != null && deadline.isExpired()) {
+                    throw new BusinessException(StatusEnum.DEADLINE_EXCEEDED);
+                }
+                recordFailure(endpoint, ex);
+                last = ex;
+                if (i + 1 < ranked.size()) {
+                    failover(endpoint, ranked.get(i + 1), ex);
+                }
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * 模型客户端本身不设读超时，调用放到虚拟线程上，最多等待 call-timeout-ms 与剩余处理时间中的较小者；
+     * 超时后中断调用，按端点失败处理，调用方随即归还并发名额。
+     */
+    private ChatResponse callWithin(Endpoint endpoint, Prompt prompt, Deadline deadline) {
+        long timeoutMs = Deadline.budget(deadline, routerProperties.getCallTimeoutMs());
+        if (timeoutMs <= 0) {
+            return endpoint.model.call(prompt);
+        }
+        Future<ChatResponse> future = chatExecutor.submit(() -> endpoint.model.call(prompt));
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            throw new IllegalStateException("模型端点 " + endpoint.name + " 在 " + timeoutMs + " ms 内未返回", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(StatusEnum.SERVER_ERROR.getCode(), "模型调用被中断");
+        } finally {
+            future.cancel(true);
+        }
+    }
+
+    private Flux<ChatResponse> attempt(Prompt prompt, List<Endpoint> ranked, int index, Deadline deadline) {
+        Endpoint endpoint = ranked.get(index);
+        long startNanos = System.nanoTime();
+        long firstTokenTimeoutMs = Deadline.budget(deadline, routerProperties.getFirstTokenTimeoutMs());
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(firstTokenTimeoutMs);
+        AtomicBoolean started = new AtomicBoolean();
+        return endpoint.model.stream(prompt)
+                // 只限制首个非空分片的等待时间，开始输出后不再设超时
+                .timeout(Mono.delay(Duration.ofMillis(firstTokenTimeoutMs)),
+                        response -> started.get() ? Mono.never()
+                                : Mono.delay(Duration.ofNanos(Math.max(0L, deadlineNanos - System.nanoTime()))))
+                .doOnNext(response -> {
+                    if (!started.get() && StringUtils.hasLength(ChatResponses.text(response))) {
+                        started.set(true);
+                        long ttftNanos = System.nanoTime() - startNanos;
+                        endpoint.onSuccess(TimeUnit.NANOSECONDS.toMillis(ttftNanos), routerProperties.getEwmaAlpha());
+                        ttftTimer(endpoint).record(ttftNanos, TimeUnit.NANOSECONDS);
+                    }
+                })
+                .map(response -> routed(response, endpoint))
+                .doOnComplete(() -> {
+                    if (!started.get()) {
+                        endpoint.onSuccess(-1, routerProperties.getEwmaAlpha());
+                    }
+                    requestCounter(endpoint, "success").increment();
+                })
+                .onErrorResume(error -> {
+                    // 请求已过期导致的超时不是端点的问题
+                    if (isRequestError(error) || deadline != null && deadline.isExpired()) {
+                        return Flux.error(error);
+                    }
+                    recordFailure(endpoint, error);
+                    // 已经输出的内容无法撤回，开始输出后的失败直接交给调用方
+                    if (started.get() || index + 1 >= ranked.size()) {
+                        return Flux.error(error);
+                    }
+                    failover(endpoint, ranked.get(index + 1), error);
+                    return attempt(prompt, ranked, index + 1, deadline);
+                });
+    }
+
+    /**
+     * 在响应元数据中记录实际提供服务的端点模型，调用方据此给指标打 model 标签。
+     */
+    private ChatResponse routed(ChatResponse response, Endpoint endpoint) {
+        if (response == null) {
+            return null;
+        }
+        return ChatResponse.builder().from(response).metadata(ChatResponses.ROUTED_MODEL, endpoint.modelName).build();
+    }
+
+    /**
+     * 排序依次为：未被摘除、符合路由规则、冷却期已过待探测、得分。
+     * 全部端点都被摘除时仍按得分尝试，不直接拒绝请求。
+     */
+    private List<Endpoint> rank(String question) {
+        long now = System.currentTimeMillis();
+        Boolean shortQuestion = shortQuestion(question);
+        List<Candidate> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            candidates.add(endpoint.snapshot(now, preferred(endpoint, shortQuestion),
+                    routerProperties.getInitialTtftMs(), routerProperties.getErrorPenalty()));
+        }
+        candidates.sort(Comparator.comparing(Candidate::ejected)
+                .thenComparing(candidate -> !candidate.preferred())
+                .thenComparing(candidate -> !candidate.probe())
+                .thenComparingDouble(Candidate::score));
+        int attempts = Math.min(Math.max(1, routerProperties.getMaxAttempts()), candidates.size());
+        List<Endpoint> ranked = new ArrayList<>(attempts);
+        for (Candidate candidate : candidates.subList(0, attempts)) {
+            if (candidate.probe()) {
+                candidate.endpoint().claimProbe(now, routerProperties.getEjectMs());
+            }
+            ranked.add(candidate.endpoint());
+        }
+        return ranked;
+    }
+
+    /**
+     * 未启用按长度路由时返回 null。
+     */
+    private Boolean shortQuestion(String question) {
+        if (routerProperties.getShortQuestionMaxChars() <= 0 || question == null) {
+            return null;
+        }
+        return question.strip().length() <= routerProperties.getShortQuestionMaxChars();
+    }
+
+    private boolean preferred(Endpoint endpoint, Boolean shortQuestion) {
+        if (shortQuestion == null) {
+            return true;
+        }
+        boolean shortTier = routerProperties.getShortQuestionTier().equalsIgnoreCase(endpoint.tier);
+        return shortQuestion == shortTier;
+    }
+
+    private void recordFailure(Endpoint endpoint, Throwable error) {
+        requestCounter(endpoint, "error").increment();
+        boolean ejected = endpoint.onFailure(System.currentTimeMillis(), routerProperties.getEwmaAlpha(),
+                routerProperties.getEjectAfterFailures(), routerProperties.getEjectMs());
+        if (ejected) {
+            log.warn("模型端点 {} 连续失败，摘除 {} ms: {}", endpoint.name, routerProperties.getEjectMs(), error.toString());
+        }
+    }
+
+    private void failover(Endpoint from, Endpoint to, Throwable error) {
+        log.warn("模型端点 {} 在输出前失败，切换到 {}: {}", from.name, to.name, error.toString());
+        Counter.builder("chat.router.failover")
+                .description("首个分片前失败后切换端点的次数")
+                .tag("from", from.name)
+                .tag("to", to.name)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Counter requestCounter(Endpoint endpoint, String outcome) {
+        return Counter.builder("chat.router.requests")
+                .description("发往各模型端点的请求数")
+                .tag("endpoint", endpoint.name)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Timer ttftTimer(Endpoint endpoint) {
+        return Timer.builder("chat.router.ttft")
+                .description("从发出请求到端点返回首个非空分片的耗时")
+                .tag("endpoint", endpoint.name)
+                .register(meterRegistry);
+    }
+
+    private ChatModel build(ModelRouterProperties.Endpoint config) {
+        OpenAiApi api = OpenAiApi.builder()
+                .baseUrl(config.getBaseUrl())
+                .apiKey(StringUtils.hasText(config.getApiKey()) ? config.getApiKey() : NO_API_KEY)
+                .build();
+        return OpenAiChatModel.builder()
+                .openAiApi(api)
+                .defaultOptions(OpenAiChatOptions.builder()
+                        .model(config.getModel())
+                        .streamUsage(streamUsage)
+                        .build())
+                // 失败时由路由切换端点，不在同一端点上重试
+                .retryTemplate(RetryTemplate.builder().maxAttempts(1).build())
+                .build();
+    }
+
+    /**
+     * 请求本身有问题（上下文超长、参数错误），换端点也不会成功，也不计入端点的错误率。
+     * 非流式调用经 OpenAiApi 的错误处理器后，4xx 以 NonTransientAiException 抛出，消息形如 "400 - 响应体"；
+     * 其中 401/403/404/429 等属于端点自身的问题，仍然切换端点。
+     */
+    private static boolean isRequestError(Throwable error) {
+        int status = -1;
+        if (error instanceof WebClientResponseException ex) {
+            status = ex.getStatusCode().value();
+        } else if (error instanceof RestClientResponseException ex) {
+            status = ex.getStatusCode().value();
+        } else if (error instanceof NonTransientAiException ex) {
+            status = statusOf(ex);
+            if (status < 0) {
+                return true;
+            }
+        }
+        return status == 400 || status == 413 || status == 422;
+    }
+
+    private static int statusOf(NonTransientAiException error) {
+        String message = error.getMessage();
+        if (message == null || message.length() < 3) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(message.substring(0, 3));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private record Candidate(Endpoint endpoint, boolean ejected, boolean preferred, boolean probe, double score) {
+    }
+
+    private static final class Endpoint {
+
+        private final String name;
+        private final String tier;
+        // 端点配置的模型名，用作指标的 model 标签
+        private final String modelName;
+        private final ChatModel model;
+
+        private double ttftMs = Double.NaN;
+        private double errorRate;
+        private int consecutiveFailures;
+        private long ejectedUntil;
+        private long probeUntil;
+
+        private Endpoint(String name, String tier, String modelName, ChatModel model) {
+            this.name = name;
+            this.tier = tier;
+            this.modelName = modelName;
+            this.model = model;
+        }
+
+        /**
+         * 得分 = TTFT × (1 + penalty × 错误率)，越低越优先；还没有 TTFT 样本时按 initialTtftMs 计算。
+         */
+        synchronized Candidate snapshot(long now, boolean preferred, long initialTtftMs, double penalty) {
+            boolean ejected = ejectedUntil > now;
+            boolean probe = ejectedUntil != 0 && !ejected && probeUntil <= now;
+            double ttft = Double.isNaN(ttftMs) ? initialTtftMs : ttftMs;
+            return new Candidate(this, ejected, preferred, probe, ttft * (1 + penalty * errorRate));
+        }
+
+        /**
+         * 冷却期过后只放行一个探测请求；探测请求被取消时 probeUntil 到期后可再次探测。
+         */
+        synchronized void claimProbe(long now, long ejectMs) {
+            probeUntil = now + ejectMs;
+        }
+
+        /**
+         * @param ttftMs 本次首个分片耗时，小于 0 表示没有样本
+         */
+        synchronized void onSuccess(long ttftMs, double alpha) {
+            if (ttftMs >= 0) {
+                this.ttftMs = Double.isNaN(this.ttftMs) ? ttftMs : this.ttftMs + alpha * (ttftMs - this.ttftMs);
+            }
+            // 探测成功视为端点已恢复，错误率从零开始累计
+            errorRate = ejectedUntil != 0 ? 0 : errorRate * (1 - alpha);
+            consecutiveFailures = 0;
+            ejectedUntil = 0;
+            probeUntil = 0;
+        }
+
+        /**
+         * @return 本次失败是否导致端点被摘除
+         */
+        synchronized boolean onFailure(long now, double alpha, int ejectAfterFailures, long ejectMs) {
+            errorRate = errorRate + alpha * (1 - errorRate);
+            consecutiveFailures++;
+            probeUntil = 0;
+            if (consecutiveFailures >= ejectAfterFailures && ejectedUntil <= now) {
+                ejectedUntil = now + ejectMs;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized double ttftMs() {
+            return ttftMs;
+        }
+
+        synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized boolean isEjected(long now) {
+            return ejectedUntil > now;
+        }
+    }
+}
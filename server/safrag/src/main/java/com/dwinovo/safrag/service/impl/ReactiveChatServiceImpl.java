@@ -0,0 +1,545 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import com.dwinovo.safrag.service.ChatAdmissionService;
+import com.dwinovo.safrag.service.ConversationHistoryService;
+import com.dwinovo.safrag.service.ConversationService;
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
+import com.dwinovo.safrag.service.MessageService;
+import com.dwinovo.safrag.service.ModelRouterService;
+import com.dwinovo.safrag.service.ReactiveChatService;
+import com.dwinovo.safrag.service.RetrievalService;
+import com.dwinovo.safrag.service.SseConnectionService;
+import com.dwinovo.safrag.utils.ChatMetrics;
+import com.dwinovo.safrag.utils.ChatResponses;
+import com.dwinovo.safrag.utils.Deadline;
+import com.dwinovo.safrag.utils.NoContextShortCircuit;
+import com.dwinovo.safrag.utils.RagPromptBuilder;
+import com.dwinovo.safrag.utils.TokenCounter;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Tags;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * 对话流的响应式实现：检索走非阻塞 HTTP，数据库读写与准入排队放到虚拟线程调度器上，
+ * 模型分片直接映射为 SSE 事件。写出时按客户端的消费速度向上游请求分片，慢客户端会让模型流暂停而不是积压。
+ */
+@Slf4j
+@Service
+public class ReactiveChatServiceImpl implements ReactiveChatService {
+
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_CANCELLED = "CANCELLED";
+    private static final String STATUS_FAILED = "FAILED";
+    // flush-bytes 按每个分片约 4 字节折算为合并的分片数上限
+    private static final int BYTES_PER_CHUNK = 4;
+    private static final String CONNECTION_ENDPOINT = "stream/reactive";
+
+    @Autowired
+    private ModelRouterService modelRouterService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private RetrievalService retrievalService;
+
+    @Autowired
+    private ConversationHistoryService conversationHistoryService;
+
+    @Autowired
+    private KnowledgeBaseVisibilityService knowledgeBaseVisibilityService;
+
+    @Autowired
+    private ChatAdmissionService chatAdmissionService;
+
+    @Autowired
+    private SseConnectionService sseConnectionService;
+
+    @Autowired
+    @Qualifier("chatScheduler")
+    private Scheduler chatScheduler;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Autowired
+    private TokenCounter tokenCounter;
+
+    @Autowired
+    private RagPromptBuilder ragPromptBuilder;
+
+    @Autowired
+    private ChatMetrics chatMetrics;
+
+    @Autowired
+    private NoContextShortCircuit noContextShortCircuit;
+
+    @Autowired
+    @Qualifier("llmCircuitBreaker")
+    private CircuitBreaker llmCircuitBreaker;
+
+    @Autowired
+    @Qualifier("llmBulkhead")
+    private Bulkhead llmBulkhead;
+
+    @Value("${chat.prepare-timeout-ms:15000}")
+    private long prepareTimeoutMs;
+
+    @Value("${chat.stream.flush-interval-ms:40}")
+    private long flushIntervalMs;
+
+    @Value("${chat.stream.flush-bytes:256}")
+    private int flushBytes;
+
+    @Value("${chat.stream.checkpoint-interval-ms:2000}")
+    private long checkpointIntervalMs;
+
+    @Override
+    public Flux<ServerSentEvent<Object>> streamChat(Long userId, Long conversationId, String userInput,
+                                                    List<Long> knowledgeBaseIds) {
+        // 控制器入口设置的截止时间只绑定在请求线程上，之后的各步骤显式传递
+        Deadline deadline = Deadline.current();
+        return Flux.defer(() -> {
+            // 停机排空期间不再开始新的生成
+            if (!sseConnectionService.isAccepting()) {
+                return Flux.just(errorEvent(StatusEnum.SERVICE_UNAVAILABLE.getCode(),
+                        SseConnectionService.CloseReason.SHUTDOWN.getMessage()));
+            }
+            ReactiveChat chat = new ReactiveChat(conversationId, knowledgeBaseCount(knowledgeBaseIds), deadline);
+            Flux<ServerSentEvent<Object>> reply = prepare(userId, conversationId, userInput, knowledgeBaseIds, chat.tags,
+                            deadline)
+                    .flatMapMany(preparation -> {
+                        if (noContextShortCircuit.applies(preparation.knowledgeBaseIds(), preparation.nodes())) {
+                            return blocking(deadline,
+                                    () -> chat.answerWithoutModel(userId, noContextShortCircuit.answer()))
+                                    .flatMapMany(answer -> Flux.just(answer, event("done", "[DONE]")));
+                        }
+                        List<org.springframework.ai.chat.messages.Message> prompt =
+                                ragPromptBuilder.messages(preparation.history(), userInput, preparation.nodes());
+                        recordPromptSize(chat.tags, prompt);
+                        return admit(chat, userId, preparation.priority())
+                                .then(startMessage(chat))
+                                .thenMany(generate(chat, prompt, userInput));
+                    })
+                    .onErrorResume(error -> Flux.just(chat.rejected(error)));
+            // 立即告知客户端连接已就绪
+            Flux<ServerSentEvent<Object>> events = Flux.concat(Flux.just(event("message", "")), reply)
+                    .doOnNext(sse -> chat.connection.lastActivityNanos = System.nanoTime())
+                    .doOnCancel(chat::cancel)
+                    .doFinally(signal -> {
+                        chat.releaseAdmission();
+                        chat.connection.heartbeats.tryEmitComplete();
+                    });
+            return withLifecycle(userId, chat.connection, events);
+        });
+    }
+
+    /**
+     * 登记到连接管理器：心跳注释与事件合并写出；被管理器关闭时取消生成并补发一条错误事件。
+     * 响应式流不支持续传，超过最长时长同样中止。
+     */
+    private Flux<ServerSentEvent<Object>> withLifecycle(Long userId, ManagedConnection connection,
+                                                        Flux<ServerSentEvent<Object>> events) {
+        return Flux.merge(events, connection.heartbeats.asFlux())
+                .takeUntilOther(connection.closed.asMono())
+                .concatWith(Mono.fromSupplier(() -> connection.reason)
+                        .map(reason -> errorEvent(StatusEnum.SERVICE_UNAVAILABLE.getCode(), reason.getMessage())))
+                .doOnSubscribe(subscription ->
+                        connection.id = sseConnectionService.register(userId, CONNECTION_ENDPOINT, connection))
+                .doFinally(signal -> sseConnectionService.unregister(connection.id));
+    }
+
+    /**
+     * 归属校验、历史组装与知识库检索并行执行，共享同一个超时（不超过请求剩余的处理时限）。
+     * 检索失败或超时按无上下文处理；其余步骤失败则整体失败。
+     */
+    private Mono<ChatPreparation> prepare(Long userId, Long conversationId, String userInput,
+                                          List<Long> knowledgeBaseIds, Tags tags, Deadline deadline) {
+        long budgetMs = deadline == null ? prepareTimeoutMs : Math.min(prepareTimeoutMs, deadline.remainingMillis());
+        if (budgetMs <= 0) {
+            return Mono.error(new BusinessException(StatusEnum.DEADLINE_EXCEEDED));
+        }
+        Duration timeout = Duration.ofMillis(budgetMs);
+        Mono<Boolean> ownership = blocking(deadline, () -> conversationService.isOwner(userId, conversationId));
+        Mono<Integer> priority = blocking(deadline, () -> knowledgeBaseVisibilityService.priorityOf(userId));
+        Mono<List<org.springframework.ai.chat.messages.Message>> history = blocking(deadline, () -> {
+            long start = System.nanoTime();
+            List<org.springframework.ai.chat.messages.Message> assembled =
+                    conversationHistoryService.assemble(conversationId, userInput);
+            chatMetrics.recordHistoryLoad(tags, System.nanoTime() - start);
+            return assembled;
+        });
+        // 客户端传入的知识库只保留当前用户可见的部分
+        Mono<List<Long>> visible = blocking(deadline,
+                () -> knowledgeBaseVisibilityService.filterVisible(userId, knowledgeBaseIds))
+                .cache();
+        Mono<List<RagRetrieveResponse.RagNode>> nodes = visible
+                .flatMap(ids -> {
+                    long start = System.nanoTime();
+                    // 检索结果可能被其他请求共享，取消订阅时不取消底层检索
+                    return Mono.fromFuture(() -> retrievalService.retrieveAsync(userInput, ids), true)
+                            .doOnNext(found -> chatMetrics.recordRetrieval(tags, System.nanoTime() - start,
+                                    found.size()));
+                })
+                .timeout(timeout)
+                .onErrorResume(ex -> {
+                    log.warn("获取知识库上下文失败", ex);
+                    return Mono.just(Collections.emptyList());
+                });
+        Mono<ChatPreparation> context = Mono.zip(ownership, history, priority, visible)
+                .timeout(timeout, Mono.error(() -> deadline != null && deadline.isExpired()
+                        ? new BusinessException(StatusEnum.DEADLINE_EXCEEDED)
+                        : new BusinessException(StatusEnum.SERVER_ERROR.getCode(), "准备对话上下文超时")))
+                .map(tuple -> {
+                    if (!Boolean.TRUE.equals(tuple.getT1())) {
+                        throw new BusinessException(StatusEnum.FORBIDDEN);
+                    }
+                    // 未分配等级的用户 priority 为 0，排队时排在所有等级之后
+                    int level = tuple.getT3();
+                    return new ChatPreparation(tuple.getT2(), List.of(), tuple.getT4(),
+                            level > 0 ? level : Integer.MAX_VALUE);
+                });
+        return Mono.zip(context, nodes, (prepared, found) ->
+                new ChatPreparation(prepared.history(), found, prepared.knowledgeBaseIds(), prepared.priority()));
+    }
+
+    /**
+     * 排队等待放行会阻塞，放到虚拟线程上；取消订阅时等待被中断，名额在 doFinally 中归还。
+     */
+    private Mono<Void> admit(ReactiveChat chat, Long userId, int priority) {
+        return blocking(chat.deadline, () -> {
+            ChatAdmissionService.Ticket ticket = chatAdmissionService.enqueue(userId, priority);
+            chat.ticket = ticket;
+            if (chat.closed.get()) {
+                ticket.release();
+                return ticket;
+            }
+            ticket.await();
+            return ticket;
+        }).then();
+    }
+
+    private Mono<Long> startMessage(ReactiveChat chat) {
+        // 先写入占位消息，生成过程中定期检查点，结束时写入最终状态
+        return blocking(chat.deadline, () -> messageService.startStreamingMessage(chat.conversationId, "assistant"))
+                .doOnNext(id -> {
+                    chat.messageId = id;
+                    // 写入期间客户端已断开
+                    if (chat.closed.get()) {
+                        chatExecutor.execute(() -> chat.finish(STATUS_CANCELLED));
+                    }
+                });
+    }
+
+    private Flux<ServerSentEvent<Object>> generate(ReactiveChat chat,
+                                                   List<org.springframework.ai.chat.messages.Message> prompt,
+                                                   String question) {
+        Flux<String> chunks = modelRouterService.stream(prompt, question, chat.deadline)
+                // 模型熔断或并发已满时立即失败，不占用准入名额等待
+                .transformDeferred(BulkheadOperator.of(llmBulkhead))
+                .transformDeferred(CircuitBreakerOperator.of(llmCircuitBreaker))
+                .doOnNext(response -> {
+                    chat.routedTo(ChatResponses.model(response));
+                    Usage usage = ChatResponses.usage(response);
+                    if (usage != null) {
+                        chat.usage = usage;
+                    }
+                })
+                .mapNotNull(ChatResponses::text)
+                .filter(chunk -> !chunk.isEmpty())
+                .doOnNext(chat::append);
+        return coalesce(chunks)
+                .map(data -> event("message", data))
+                // 客户端收到 done 后会重新拉取消息列表，因此需先落库
+                .concatWith(blocking(chat::complete))
+                .onErrorResume(error -> blocking(() -> chat.fail(error)));
+    }
+
+    /**
+     * 首个分片立即发出，之后按刷新间隔合并，策略与 SseChunkCoalescer 一致；合并使用公平背压，
+     * 客户端写不动时不会再向模型请求分片。
+     */
+    private Flux<String> coalesce(Flux<String> chunks) {
+        if (flushIntervalMs <= 0) {
+            return chunks;
+        }
+        int maxChunks = Math.max(1, flushBytes / BYTES_PER_CHUNK);
+        return chunks.switchOnFirst((first, all) -> first.hasValue()
+                ? Flux.concat(Flux.just(first.get()), all.skip(1)
+                        .bufferTimeout(maxChunks, Duration.ofMillis(flushIntervalMs), true)
+                        .map(parts -> String.join("", parts)))
+                : all);
+    }
+
+    private <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(chatScheduler);
+    }
+
+    /**
+     * 在虚拟线程上绑定请求的截止时间执行，数据库与排队只使用剩余的预算。
+     * 结束时的落库不经过这里，截止时间过后仍要写入最终状态。
+     */
+    private <T> Mono<T> blocking(Deadline deadline, Callable<T> call) {
+        return deadline == null ? blocking(call) : blocking(() -> deadline.call(call));
+    }
+
+    private void recordPromptSize(Tags tags, List<org.springframework.ai.chat.messages.Message> prompt) {
+        int chars = 0;
+        int tokens = 0;
+        for (org.springframework.ai.chat.messages.Message message : prompt) {
+            String text = message.getText();
+            if (text != null) {
+                chars += text.length();
+                tokens += tokenCounter.count(text);
+            }
+        }
+        chatMetrics.recordPrompt(tags, chars, tokens);
+    }
+
+    private int knowledgeBaseCount(List<Long> knowledgeBaseIds) {
+        return knowledgeBaseIds == null ? 0 : (int) knowledgeBaseIds.stream().filter(Objects::nonNull).distinct().count();
+    }
+
+    private static ServerSentEvent<Object> event(String name, Object data) {
+        return ServerSentEvent.builder(data).event(name).build();
+    }
+
+    private static ServerSentEvent<Object> errorEvent(int code, String message) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("code", code);
+        data.put("message", message);
+        return event("error", data);
+    }
+
+    /**
+     * 心跳只由连接管理器的调度线程发出，没有需求时直接丢弃（客户端正写不动，也就不需要保活）。
+     */
+    private static class ManagedConnection implements SseConnectionService.Connection {
+
+        private final Sinks.Many<ServerSentEvent<Object>> heartbeats = Sinks.many().multicast().directBestEffort();
+        private final Sinks.One<SseConnectionService.CloseReason> closed = Sinks.one();
+        private volatile long lastActivityNanos = System.nanoTime();
+        private volatile SseConnectionService.CloseReason reason;
+        private volatile String id;
+
+        @Override
+        public long lastActivityNanos() {
+            return lastActivityNanos;
+        }
+
+        @Override
+        public void heartbeat() {
+            heartbeats.tryEmitNext(ServerSentEvent.builder().comment("heartbeat").build());
+        }
+
+        @Override
+        public void close(SseConnectionService.CloseReason reason) {
+            this.reason = reason;
+            closed.tryEmitValue(reason);
+        }
+    }
+
+    private record ChatPreparation(List<org.springframework.ai.chat.messages.Message> history,
+                                   List<RagRetrieveResponse.RagNode> nodes,
+                                   List<Long> knowledgeBaseIds,
+                                   int priority) {
+    }
+
+    /**
+     * 单次响应式对话的状态；结束状态（完成、失败、取消）只生效一次。
+     */
+    private class ReactiveChat {
+
+        private final Long conversationId;
+        private final int knowledgeBaseCount;
+        // 路由之前各阶段的标签
+        private final Tags tags;
+        private final Deadline deadline;
+        private final ManagedConnection connection = new ManagedConnection();
+        private final long startNanos = System.nanoTime();
+        private final StringBuffer buffer = new StringBuffer();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean outcomeRecorded = new AtomicBoolean();
+        private final AtomicBoolean finalized = new AtomicBoolean();
+        private final AtomicBoolean checkpointing = new AtomicBoolean();
+        private volatile Long messageId;
+        private volatile ChatAdmissionService.Ticket ticket;
+        private volatile long firstTokenNanos;
+        private volatile Usage usage;
+        // 路由选定端点后带实际模型的标签
+        private volatile Tags modelTags;
+        private volatile long lastCheckpointNanos = System.nanoTime();
+
+        ReactiveChat(Long conversationId, int knowledgeBaseCount, Deadline deadline) {
+            this.conversationId = conversationId;
+            this.knowledgeBaseCount = knowledgeBaseCount;
+            this.tags = chatMetrics.tags(knowledgeBaseCount);
+            this.deadline = deadline;
+        }
+
+        void routedTo(String model) {
+            if (model != null && modelTags == null) {
+                modelTags = chatMetrics.tags(model, knowledgeBaseCount);
+            }
+        }
+
+        /**
+         * 未调用模型（如检索为空直接回答、准备阶段失败）时沿用路由之前的标签。
+         */
+        Tags modelTags() {
+            Tags routed = modelTags;
+            return routed != null ? routed : tags;
+        }
+
+        void append(String chunk) {
+            if (firstTokenNanos == 0L) {
+                firstTokenNanos = System.nanoTime();
+                chatMetrics.recordTimeToFirstToken(modelTags(), firstTokenNanos - startNanos);
+            }
+            buffer.append(chunk);
+            maybeCheckpoint();
+        }
+
+        ServerSentEvent<Object> complete() {
+            int replyTokens = tokenCounter.count(buffer.toString());
+            if (firstTokenNanos != 0L) {
+                chatMetrics.recordThroughput(modelTags(), replyTokens, System.nanoTime() - firstTokenNanos);
+            }
+            chatMetrics.recordUsage(modelTags(), usage);
+            finish(STATUS_COMPLETED);
+            recordOutcome(ChatMetrics.OUTCOME_COMPLETE);
+            return event("done", "[DONE]");
+        }
+
+        /**
+         * 检索为空时不调用模型，固定回答直接落库后作为一个分片发出。
+         */
+        ServerSentEvent<Object> answerWithoutModel(Long userId, String answer) {
+            messageService.addMessage(userId, conversationId, "assistant", answer);
+            conversationHistoryService.refreshSummaryAsync(conversationId);
+            chatMetrics.recordNoContextShortCircuit(tags);
+            recordOutcome(ChatMetrics.OUTCOME_SHORT_CIRCUIT);
+            return event("message", answer);
+        }
+
+        ServerSentEvent<Object> fail(Throwable error) {
+            finish(STATUS_FAILED);
+            recordOutcome(ChatMetrics.OUTCOME_ERROR);
+            if (error instanceof CallNotPermittedException || error instanceof BulkheadFullException) {
+                return errorEvent(StatusEnum.SERVICE_UNAVAILABLE.getCode(), "模型服务暂不可用，请稍后再试");
+            }
+            if (error instanceof BusinessException business) {
+                return errorEvent(business.getCode(), business.getMessage());
+            }
+            log.warn("对话 {} 生成回答失败", conversationId, error);
+            return errorEvent(StatusEnum.SERVER_ERROR.getCode(), "生成回答失败");
+        }
+
+        /**
+         * 调用模型之前失败：校验、准备或排队出错。
+         */
+        ServerSentEvent<Object> rejected(Throwable error) {
+            recordOutcome(ChatMetrics.OUTCOME_ERROR);
+            if (error instanceof BusinessException business) {
+                return errorEvent(business.getCode(), business.getMessage());
+            }
+            log.warn("准备对话 {} 时发生异常", conversationId, error);
+            return errorEvent(StatusEnum.SERVER_ERROR.getCode(), StatusEnum.SERVER_ERROR.getMessage());
+        }
+
+        /**
+         * 客户端断开，运行在容器或 reactor 线程上，落库交给虚拟线程。
+         */
+        void cancel() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            recordOutcome(ChatMetrics.OUTCOME_CANCELLED);
+            if (messageId != null) {
+                chatExecutor.execute(() -> finish(STATUS_CANCELLED));
+            }
+        }
+
+        void releaseAdmission() {
+            ChatAdmissionService.Ticket current = ticket;
+            if (current != null) {
+                current.release();
+            }
+        }
+
+        private void recordOutcome(String outcome) {
+            if (outcomeRecorded.compareAndSet(false, true)) {
+                chatMetrics.recordDuration(modelTags(), System.nanoTime() - startNanos, outcome);
+            }
+        }
+
+        private void maybeCheckpoint() {
+            Long id = messageId;
+            if (id == null || checkpointIntervalMs <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastCheckpointNanos < TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMs)
+                    || !checkpointing.compareAndSet(false, true)) {
+                return;
+            }
+            lastCheckpointNanos = now;
+            String snapshot = buffer.toString();
+            chatExecutor.execute(() -> {
+                try {
+                    messageService.checkpointStreamingMessage(id, snapshot);
+                } catch (Exception ex) {
+                    log.warn("写入助手消息 {} 的检查点失败", id, ex);
+                } finally {
+                    checkpointing.set(false);
+                }
+            });
+        }
+
+        private void finish(String status) {
+            Long id = messageId;
+            if (id == null || !finalized.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (messageService.finishStreamingMessage(id, buffer.toString(), status)) {
+                    conversationHistoryService.refreshSummaryAsync(conversationId);
+                }
+            } catch (Exception ex) {
+                log.warn("保存助手消息 {} 时发生异常", id, ex);
+            }
+        }
+    }
+}
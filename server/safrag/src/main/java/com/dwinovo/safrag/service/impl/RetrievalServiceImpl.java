@@ -0,0 +1,379 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import com.dwinovo.safrag.service.KeywordIndexService;
+import com.dwinovo.safrag.service.RetrievalService;
+import com.dwinovo.safrag.utils.Deadline;
+import com.dwinovo.safrag.utils.KeywordTokenizer;
+import com.dwinovo.safrag.utils.RagClient;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpStatusCodeException;
+
+@Slf4j
+@Service
+public class RetrievalServiceImpl implements RetrievalService {
+
+    @Autowired
+    private RagClient ragClient;
+
+    @Autowired
+    private KeywordIndexService keywordIndexService;
+
+    @Autowired
+    private KeywordTokenizer keywordTokenizer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${rag.retrieve.top-k:5}")
+    private int topK;
+
+    @Value("${rag.retrieve.cache.max-size:2000}")
+    private long cacheMaxSize;
+
+    @Value("${rag.retrieve.cache.ttl-seconds:300}")
+    private long cacheTtlSeconds;
+
+    @Value("${rag.retrieve.coalesce-wait-ms:6000}")
+    private long coalesceWaitMs;
+
+    @Value("${rag.hybrid.enabled:false}")
+    private boolean hybridEnabled;
+
+    @Value("${rag.hybrid.rrf-k:60}")
+    private int rrfK;
+
+    @Value("${rag.hybrid.exact-term-shortcut:true}")
+    private boolean exactTermShortcut;
+
+    private Cache<RetrievalKey, List<RagRetrieveResponse.RagNode>> cache;
+
+    // 正在进行的检索，相同键的并发请求共享同一次调用
+    private final ConcurrentHashMap<RetrievalKey, CompletableFuture<List<RagRetrieveResponse.RagNode>>> inFlight =
+            new ConcurrentHashMap<>();
+
+    // 每次失效自增；检索期间发生过失效则不回填，避免把旧结果写回缓存
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private Timer hitTimer;
+    private Timer missTimer;
+    private Timer errorTimer;
+    private Timer coalescedTimer;
+    private Counter coalescedCounter;
+    private Counter keywordShortcutCounter;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "rag.retrieve.cache");
+        hitTimer = retrieveTimer("hit");
+        missTimer = retrieveTimer("miss");
+        errorTimer = retrieveTimer("error");
+        coalescedTimer = retrieveTimer("coalesced");
+        coalescedCounter = Counter.builder("rag.retrieve.coalesced")
+                .description("等待其他相同检索结果、未单独调用 RAG Server 的请求数")
+                .register(meterRegistry);
+        keywordShortcutCounter = Counter.builder("rag.retrieve.keyword.shortcut")
+                .description("精确词查询只用关键词索引、跳过向量检索的次数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public List<RagRetrieveResponse.RagNode> retrieve(String query, List<Long> knowledgeBaseIds) {
+        if (CollectionUtils.isEmpty(knowledgeBaseIds) || !StringUtils.hasText(query)) {
+            return Collections.emptyList();
+        }
+        if (!hybridEnabled) {
+            return retrieveVector(query, knowledgeBaseIds);
+        }
+        List<RagRetrieveResponse.RagNode> keyword = keywordIndexService.search(query, knowledgeBaseIds, topK);
+        // 编号、名称等精确词查询：关键词命中的最佳片段包含全部编号时，不再等待向量检索
+        if (exactTermShortcut && !keyword.isEmpty() && containsAllIdentifiers(keyword.get(0), query)) {
+            keywordShortcutCounter.increment();
+            return keyword;
+        }
+        return fuse(retrieveVector(query, knowledgeBaseIds), keyword);
+    }
+
+    @Override
+    public CompletableFuture<List<RagRetrieveResponse.RagNode>> retrieveAsync(String query, List<Long> knowledgeBaseIds) {
+        if (CollectionUtils.isEmpty(knowledgeBaseIds) || !StringUtils.hasText(query)) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        if (!hybridEnabled) {
+            return retrieveVectorAsync(query, knowledgeBaseIds);
+        }
+        // 关键词索引在内存中，直接在调用线程上检索
+        List<RagRetrieveResponse.RagNode> keyword = keywordIndexService.search(query, knowledgeBaseIds, topK);
+        if (exactTermShortcut && !keyword.isEmpty() && containsAllIdentifiers(keyword.get(0), query)) {
+            keywordShortcutCounter.increment();
+            return CompletableFuture.completedFuture(keyword);
+        }
+        return retrieveVectorAsync(query, knowledgeBaseIds).thenApply(vector -> fuse(vector, keyword));
+    }
+
+    private List<RagRetrieveResponse.RagNode> retrieveVector(String query, List<Long> knowledgeBaseIds) {
+        if (!ragClient.isConfigured()) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        RetrievalKey key = RetrievalKey.of(query, knowledgeBaseIds, topK);
+        List<RagRetrieveResponse.RagNode> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            hitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return cached;
+        }
+        long epoch = invalidations.get();
+        try {
+            return load(key, query.trim(), epoch, true, start);
+        } catch (CallNotPermittedException | BulkheadFullException ex) {
+            // RAG Server 熔断或并发已满，直接按无上下文处理
+            errorTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.warn("RAG 检索被拒绝: {}", ex.getMessage());
+            return Collections.emptyList();
+        } catch (HttpStatusCodeException ex) {
+            errorTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.warn("调用 RAG 检索接口失败: {}", ex.getStatusCode(), ex);
+            return Collections.emptyList();
+        } catch (Exception ex) {
+            errorTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.warn("调用 RAG 检索接口异常", ex);
+            return Collections.emptyList();
+        }
+    }
+
+    private CompletableFuture<List<RagRetrieveResponse.RagNode>> retrieveVectorAsync(String query,
+                                                                                   List<Long> knowledgeBaseIds) {
+        if (!ragClient.isConfigured()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        long start = System.nanoTime();
+        RetrievalKey key = RetrievalKey.of(query, knowledgeBaseIds, topK);
+        List<RagRetrieveResponse.RagNode> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            hitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return CompletableFuture.completedFuture(cached);
+        }
+        long epoch = invalidations.get();
+        return loadAsync(key, query.trim(), epoch, true, start).exceptionally(error -> {
+            Throwable cause = unwrap(error);
+            errorTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (cause instanceof CallNotPermittedException || cause instanceof BulkheadFullException) {
+                log.warn("RAG 检索被拒绝: {}", cause.getMessage());
+            } else {
+                log.warn("调用 RAG 检索接口异常", cause);
+            }
+            return Collections.emptyList();
+        });
+    }
+
+    /**
+     * 倒数排名融合（RRF）：每路结果按名次贡献 1/(k + rank)，按总分排序后取 top_k。
+     */
+    private List<RagRetrieveResponse.RagNode> fuse(List<RagRetrieveResponse.RagNode> vector,
+                                                   List<RagRetrieveResponse.RagNode> keyword) {
+        if (keyword.isEmpty()) {
+            return vector;
+        }
+        if (vector.isEmpty()) {
+            return keyword;
+        }
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, RagRetrieveResponse.RagNode> byId = new LinkedHashMap<>();
+        for (List<RagRetrieveResponse.RagNode> ranking : List.of(vector, keyword)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                RagRetrieveResponse.RagNode node = ranking.get(rank);
+                String id = node.getNodeId() != null ? node.getNodeId() : node.getContext();
+                byId.putIfAbsent(id, node);
+                scores.merge(id, 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        return byId.keySet().stream()
+                .sorted((a, b) -> Double.compare(scores.get(b), scores.get(a)))
+                .limit(topK)
+                .map(byId::get)
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    private boolean containsAllIdentifiers(RagRetrieveResponse.RagNode node, String query) {
+        Set<String> identifiers = keywordTokenizer.identifiers(query);
+        if (identifiers.isEmpty() || node.getContext() == null) {
+            return false;
+        }
+        List<String> tokens = keywordTokenizer.tokenize(node.getContext());
+        return tokens.containsAll(identifiers);
+    }
+
+    @Override
+    public void evictKnowledgeBase(Long knowledgeBaseId) {
+        if (knowledgeBaseId == null) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        cache.asMap().keySet().removeIf(key -> key.knowledgeBaseIds().contains(knowledgeBaseId));
+        // 之后到达的请求不再等待失效前发起的检索
+        inFlight.keySet().removeIf(key -> key.knowledgeBaseIds().contains(knowledgeBaseId));
+    }
+
+    /**
+     * 同一个键同时只有一个请求真正调用 RAG Server，其余请求等待它的结果。
+     * 领头请求失败时，等待者重新竞争一次领头（仍然合并），熔断或舱壁拒绝则直接失败。
+     */
+    private List<RagRetrieveResponse.RagNode> load(RetrievalKey key, String query, long epoch,
+                                                   boolean retryOnLeaderFailure, long start) {
+        CompletableFuture<List<RagRetrieveResponse.RagNode>> mine = new CompletableFuture<>();
+        CompletableFuture<List<RagRetrieveResponse.RagNode>> leader = inFlight.putIfAbsent(key, mine);
+        if (leader == null) {
+            try {
+                // 失败时抛出，不会把失败结果写入缓存
+                List<RagRetrieveResponse.RagNode> nodes = ragClient.retrieve(query, key.knowledgeBaseIds(), topK);
+                if (epoch == invalidations.get()) {
+                    cache.put(key, nodes);
+                }
+                mine.complete(nodes);
+                missTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return nodes;
+            } catch (RuntimeException | Error ex) {
+                mine.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+
+        coalescedCounter.increment();
+        try {
+            List<RagRetrieveResponse.RagNode> nodes = leader.get(Deadline.budget(coalesceWaitMs), TimeUnit.MILLISECONDS);
+            coalescedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return nodes;
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (!retryOnLeaderFailure || cause instanceof CallNotPermittedException || cause instanceof BulkheadFullException) {
+                throw cause instanceof RuntimeException runtime ? runtime : new IllegalStateException(cause);
+            }
+            return load(key, query, epoch, false, start);
+        } catch (TimeoutException ex) {
+            throw new IllegalStateException("等待合并的 RAG 检索超时");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待合并的 RAG 检索被中断");
+        }
+    }
+
+    /**
+     * load 的非阻塞版本：领头请求发出后立即返回，等待者挂在领头请求的结果上，不占用线程。
+     * 返回的都是副本，调用方取消不会影响其他等待者。
+     */
+    private CompletableFuture<List<RagRetrieveResponse.RagNode>> loadAsync(RetrievalKey key, String query, long epoch,
+                                                                           boolean retryOnLeaderFailure, long start) {
+        CompletableFuture<List<RagRetrieveResponse.RagNode>> mine = new CompletableFuture<>();
+        CompletableFuture<List<RagRetrieveResponse.RagNode>> leader = inFlight.putIfAbsent(key, mine);
+        if (leader == null) {
+            ragClient.retrieveAsync(query, key.knowledgeBaseIds(), topK).subscribe(nodes -> {
+                if (epoch == invalidations.get()) {
+                    cache.put(key, nodes);
+                }
+                inFlight.remove(key, mine);
+                missTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                mine.complete(nodes);
+            }, error -> {
+                inFlight.remove(key, mine);
+                mine.completeExceptionally(error);
+            });
+            return mine.copy();
+        }
+
+        coalescedCounter.increment();
+        return leader.copy()
+                .orTimeout(coalesceWaitMs, TimeUnit.MILLISECONDS)
+                .handle((nodes, error) -> {
+                    if (error == null) {
+                        coalescedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        return CompletableFuture.completedFuture(nodes);
+                    }
+                    Throwable cause = unwrap(error);
+                    if (cause instanceof TimeoutException) {
+                        return CompletableFuture.<List<RagRetrieveResponse.RagNode>>failedFuture(
+                                new IllegalStateException("等待合并的 RAG 检索超时"));
+                    }
+                    if (!retryOnLeaderFailure || cause instanceof CallNotPermittedException
+                            || cause instanceof BulkheadFullException) {
+                        return CompletableFuture.<List<RagRetrieveResponse.RagNode>>failedFuture(cause);
+                    }
+                    return loadAsync(key, query, epoch, false, start);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private Timer retrieveTimer(String result) {
+        return Timer.builder("rag.retrieve.latency")
+                .description("RAG 检索耗时（含缓存命中）")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 缓存键：归一化后的问题、排序去重后的知识库集合与 top_k。
+     */
+    private record RetrievalKey(String query, List<Long> knowledgeBaseIds, int topK) {
+
+        static RetrievalKey of(String query, List<Long> knowledgeBaseIds, int topK) {
+            return new RetrievalKey(normalize(query), sortedIds(knowledgeBaseIds), topK);
+        }
+
+        private static String normalize(String query) {
+            // NFKC 统一全角/半角，合并空白并忽略大小写
+            String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+            return normalized.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        }
+
+        private static List<Long> sortedIds(List<Long> ids) {
+            return ids.stream()
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .sorted()
+                    .collect(Collectors.toUnmodifiableList());
+        }
+    }
+}
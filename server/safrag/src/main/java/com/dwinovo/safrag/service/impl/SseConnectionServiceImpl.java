@@ -0,0 +1,251 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.pojo.SseConnectionInfo;
+import com.dwinovo.safrag.pojo.SseLifecycleProperties;
+import com.dwinovo.safrag.service.SseConnectionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * 对话流连接的生命周期管理。SseEmitter 不设超时，连接的回收全部在这里：
+ * 每个心跳周期给所有连接写一条注释（写不出去的半开连接随即断开），
+ * 同时关闭长时间没有输出或超过最长时长的连接。
+ * 停机时先于 Web 服务器的优雅停机执行：不再接受新的对话流，等待进行中的流结束，超时后关闭剩余连接。
+ */
+@Slf4j
+@Service
+public class SseConnectionServiceImpl implements SseConnectionService, SmartLifecycle {
+
+    @Autowired
+    private SseLifecycleProperties sseLifecycleProperties;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Entry> connections = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> activeByEndpoint = new ConcurrentHashMap<>();
+    private final Map<CloseReason, Counter> closedCounters = new HashMap<>();
+    private volatile boolean running;
+    private volatile boolean accepting = true;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("chat.sse.users", this, s -> s.countByUser().size())
+                .description("当前持有对话流连接的用户数")
+                .register(meterRegistry);
+        Gauge.builder("chat.sse.connections.per.user.max", this,
+                        s -> s.countByUser().values().stream().mapToInt(Integer::intValue).max().orElse(0))
+                .description("单个用户同时持有的对话流连接数的最大值")
+                .register(meterRegistry);
+        for (CloseReason reason : CloseReason.values()) {
+            closedCounters.put(reason, Counter.builder("chat.sse.closed")
+                    .description("被连接管理器关闭的对话流连接数")
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+    }
+
+    @Override
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    @Override
+    public String register(Long userId, String endpoint, Connection connection) {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        connections.put(id, new Entry(id, userId, endpoint, connection));
+        active(endpoint).incrementAndGet();
+        return id;
+    }
+
+    @Override
+    public void unregister(String id) {
+        Entry entry = id == null ? null : connections.remove(id);
+        if (entry != null) {
+            active(entry.endpoint).decrementAndGet();
+        }
+    }
+
+    @Override
+    public List<SseConnectionInfo> list() {
+        long now = System.nanoTime();
+        List<SseConnectionInfo> result = new ArrayList<>(connections.size());
+        for (Entry entry : connections.values()) {
+            SseConnectionInfo info = new SseConnectionInfo();
+            info.setId(entry.id);
+            info.setUserId(entry.userId);
+            info.setEndpoint(entry.endpoint);
+            info.setAgeMs(TimeUnit.NANOSECONDS.toMillis(now - entry.startNanos));
+            info.setIdleMs(TimeUnit.NANOSECONDS.toMillis(now - entry.connection.lastActivityNanos()));
+            result.add(info);
+        }
+        result.sort(Comparator.comparingLong(SseConnectionInfo::getAgeMs).reversed());
+        return result;
+    }
+
+    @Override
+    public boolean close(String id) {
+        Entry entry = connections.get(id);
+        if (entry == null) {
+            return false;
+        }
+        close(entry, CloseReason.ADMIN);
+        return true;
+    }
+
+    /**
+     * 空闲与最长时长按心跳周期检查，实际关闭时间最多晚一个周期。
+     */
+    @Scheduled(fixedDelayString = "${chat.sse.heartbeat-interval-ms:15000}")
+    public void tick() {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(sseLifecycleProperties.getIdleTimeoutMs());
+        long maxNanos = TimeUnit.MILLISECONDS.toNanos(sseLifecycleProperties.getMaxDurationMs());
+        for (Entry entry : connections.values()) {
+            if (maxNanos > 0 && now - entry.startNanos > maxNanos) {
+                close(entry, CloseReason.MAX_DURATION);
+            } else if (idleNanos > 0 && now - entry.connection.lastActivityNanos() > idleNanos) {
+                close(entry, CloseReason.IDLE);
+            } else {
+                try {
+                    entry.connection.heartbeat();
+                } catch (RuntimeException ex) {
+                    log.warn("向连接 {} 发送心跳失败", entry.id, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * 先移出登记再关闭，同一连接只关闭一次。
+     */
+    private void close(Entry entry, CloseReason reason) {
+        if (!connections.remove(entry.id, entry)) {
+            return;
+        }
+        active(entry.endpoint).decrementAndGet();
+        closedCounters.get(reason).increment();
+        log.info("关闭对话流连接 {}（用户 {}，{}）：{}", entry.id, entry.userId, entry.endpoint, reason);
+        try {
+            entry.connection.close(reason);
+        } catch (RuntimeException ex) {
+            log.warn("关闭连接 {} 时发生异常", entry.id, ex);
+        }
+    }
+
+    private AtomicInteger active(String endpoint) {
+        return activeByEndpoint.computeIfAbsent(endpoint, key -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("chat.sse.connections", count, AtomicInteger::get)
+                    .description("当前节点上进行中的对话流连接数")
+                    .tag("endpoint", key)
+                    .register(meterRegistry);
+            return count;
+        });
+    }
+
+    private Map<Long, Integer> countByUser() {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Entry entry : connections.values()) {
+            counts.merge(entry.userId, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public void start() {
+        accepting = true;
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        drain();
+    }
+
+    /**
+     * 排空可能持续 drainTimeoutMs，放到虚拟线程上，与同一阶段的其他组件并行停止。
+     */
+    @Override
+    public void stop(Runnable callback) {
+        accepting = false;
+        chatExecutor.execute(() -> {
+            try {
+                drain();
+            } finally {
+                callback.run();
+            }
+        });
+    }
+
+    private void drain() {
+        accepting = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sseLifecycleProperties.getDrainTimeoutMs());
+        if (!connections.isEmpty()) {
+            log.info("停机：等待 {} 个对话流连接结束", connections.size());
+        }
+        try {
+            while (!connections.isEmpty() && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(200);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Entry entry : connections.values()) {
+            close(entry, CloseReason.SHUTDOWN);
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 默认阶段在 Web 服务器优雅停机之前停止，此时连接仍可正常写出。
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE;
+    }
+
+    private static class Entry {
+
+        private final String id;
+        private final Long userId;
+        private final String endpoint;
+        private final Connection connection;
+        private final long startNanos = System.nanoTime();
+
+        Entry(String id, Long userId, String endpoint, Connection connection) {
+            this.id = id;
+            this.userId = userId;
+            this.endpoint = endpoint;
+            this.connection = connection;
+        }
+    }
+}
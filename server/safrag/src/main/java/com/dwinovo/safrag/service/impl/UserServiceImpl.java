@@ -2,6 +2,7 @@ package com.dwinovo.safrag.service.impl;
 
 import com.dwinovo.safrag.mapper.UserMapper;
 import com.dwinovo.safrag.pojo.User;
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
 import com.dwinovo.safrag.service.UserService;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
@@ -15,6 +16,9 @@ public class UserServiceImpl implements UserService {
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private KnowledgeBaseVisibilityService knowledgeBaseVisibilityService;
+
     private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
 
     @Override
@@ -50,7 +54,11 @@ public class UserServiceImpl implements UserService {
         if (id == null) {
             return false;
         }
-        return userMapper.updateUser(id, username, avatarUrl, levelId) > 0;
+        boolean updated = userMapper.updateUser(id, username, avatarUrl, levelId) > 0;
+        if (updated && levelId != null) {
+            knowledgeBaseVisibilityService.invalidateUser(id);
+        }
+        return updated;
     }
 
     @Override
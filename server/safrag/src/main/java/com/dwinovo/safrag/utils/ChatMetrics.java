@@ -0,0 +1,141 @@
+package com.dwinovo.safrag.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话链路各阶段的指标，均带 model 与 kb_count 标签；kb_count 分档以控制标签基数。
+ * model 为模型路由实际选中的端点模型，路由之前的阶段（历史、检索、提示词）与未调用模型的请求为 none。
+ */
+@Component
+public class ChatMetrics {
+
+    public static final String OUTCOME_COMPLETE = "complete";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+    public static final String OUTCOME_ERROR = "error";
+    // 检索为空，未调用模型直接返回固定回答
+    public static final String OUTCOME_SHORT_CIRCUIT = "short_circuit";
+    public static final String MODEL_NONE = "none";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    public Tags tags(int knowledgeBaseCount) {
+        return tags(MODEL_NONE, knowledgeBaseCount);
+    }
+
+    public Tags tags(String model, int knowledgeBaseCount) {
+        return Tags.of("model", model == null ? "unknown" : model,
+                "kb_count", knowledgeBaseBucket(knowledgeBaseCount));
+    }
+
+    public void recordHistoryLoad(Tags tags, long nanos) {
+        timer("chat.history.load", "加载并组装会话历史的耗时", tags).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRetrieval(Tags tags, long nanos, int nodeCount) {
+        timer("chat.retrieve", "对话链路上知识库检索的耗时", tags).record(nanos, TimeUnit.NANOSECONDS);
+        summary("chat.retrieve.nodes", "检索返回的知识片段数", null, tags).record(nodeCount);
+    }
+
+    public void recordPrompt(Tags tags, int chars, int tokens) {
+        summary("chat.prompt.chars", "发给模型的提示词字符数（含历史）", null, tags).record(chars);
+        summary("chat.prompt.tokens", "发给模型的提示词 token 数（含历史）", "tokens", tags).record(tokens);
+    }
+
+    public void recordTimeToFirstToken(Tags tags, long nanos) {
+        timer("chat.ttft", "从收到请求到发出首个分片的耗时", tags).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 生成速度按首个分片到结束之间的时间计算，不含排队与检索。
+     */
+    public void recordThroughput(Tags tags, int tokens, long nanos) {
+        if (tokens <= 0 || nanos <= 0) {
+            return;
+        }
+        double perSecond = tokens / (nanos / 1_000_000_000.0);
+        summary("chat.stream.throughput", "流式生成速度", "tokens/s", tags).record(perSecond);
+    }
+
+    public void recordDuration(Tags tags, long nanos, String outcome) {
+        timer("chat.duration", "单次对话的总耗时", tags.and("outcome", outcome)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordNoContextShortCircuit(Tags tags) {
+        Counter.builder("chat.no_context.short_circuit")
+                .description("检索为空时未调用模型、直接返回固定回答的次数")
+                .tags(tags)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 模型服务返回的 token 用量。cached 为命中提示词前缀缓存的部分（OpenAI 的 cached_tokens，
+     * DeepSeek 的 prompt_cache_hit_tokens）；流式调用需开启 stream-usage 才会返回用量。
+     */
+    public void recordUsage(Tags tags, Usage usage) {
+        if (usage == null || usage.getPromptTokens() == null || usage.getPromptTokens() <= 0) {
+            return;
+        }
+        int prompt = usage.getPromptTokens();
+        int cached = cachedTokens(usage);
+        tokenCounter("prompt", tags).increment(prompt);
+        tokenCounter("cached", tags).increment(cached);
+        if (usage.getCompletionTokens() != null) {
+            tokenCounter("completion", tags).increment(usage.getCompletionTokens());
+        }
+        summary("chat.llm.prompt.cache.ratio", "单次调用提示词命中前缀缓存的比例", null, tags)
+                .record((double) cached / prompt);
+    }
+
+    private static int cachedTokens(Usage usage) {
+        if (usage.getNativeUsage() instanceof OpenAiApi.Usage nativeUsage) {
+            if (nativeUsage.promptTokensDetails() != null && nativeUsage.promptTokensDetails().cachedTokens() != null) {
+                return nativeUsage.promptTokensDetails().cachedTokens();
+            }
+            if (nativeUsage.promptCacheHitTokens() != null) {
+                return nativeUsage.promptCacheHitTokens();
+            }
+        }
+        return 0;
+    }
+
+    private Counter tokenCounter(String type, Tags tags) {
+        return Counter.builder("chat.llm.tokens")
+                .description("模型服务计费的 token 数，type 为 prompt / cached / completion")
+                .baseUnit("tokens")
+                .tags(tags.and("type", type))
+                .register(meterRegistry);
+    }
+
+    private Timer timer(String name, String description, Tags tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary summary(String name, String description, String unit, Tags tags) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit(unit)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private String knowledgeBaseBucket(int count) {
+        if (count <= 1) {
+            return String.valueOf(Math.max(count, 0));
+        }
+        return count <= 5 ? "2-5" : "6+";
+    }
+}
@@ -0,0 +1,45 @@
+package com.dwinovo.safrag.utils;
+
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+
+/**
+ * 从模型响应中取文本与用量；流式调用按 ChatResponse 订阅，才能拿到最后一个分片上的用量。
+ */
+public class ChatResponses {
+
+    // 模型路由写入响应元数据的键，值为实际提供服务的端点所配置的模型名
+    public static final String ROUTED_MODEL = "safrag.routed-model";
+
+    /**
+     * 只带用量的分片没有生成结果，返回 null。
+     */
+    public static String text(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
+        }
+        return response.getResult().getOutput().getText();
+    }
+
+    /**
+     * 流式调用中只有最后一个分片带用量，其余分片返回 null。
+     */
+    public static Usage usage(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return null;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        return usage != null && usage.getPromptTokens() != null && usage.getPromptTokens() > 0 ? usage : null;
+    }
+
+    /**
+     * 经模型路由返回的响应带有实际服务的模型名，其余情况返回 null。
+     */
+    public static String model(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return null;
+        }
+        Object model = response.getMetadata().get(ROUTED_MODEL);
+        return model instanceof String name ? name : null;
+    }
+}
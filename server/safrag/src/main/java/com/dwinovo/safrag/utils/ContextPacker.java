@@ -0,0 +1,144 @@
+package com.dwinovo.safrag.utils;
+
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 把检索到的知识片段打包进提示词：同一文档中首尾重叠的相邻切片合并为一段，
+ * 再按相关度顺序填入 token 预算，去掉切片重叠（chunk_overlap）带来的重复文本。
+ */
+@Component
+public class ContextPacker {
+
+    @Autowired
+    private TokenCounter tokenCounter;
+
+    @Value("${rag.context.max-tokens:2500}")
+    private int maxTokens;
+
+    // 重叠长度低于该值时视为巧合，不合并
+    @Value("${rag.context.min-overlap-chars:32}")
+    private int minOverlapChars;
+
+    // 检查重叠时最多比较的字符数，应覆盖 chunk_overlap 对应的文本长度
+    @Value("${rag.context.max-overlap-chars:4000}")
+    private int maxOverlapChars;
+
+    public List<PackedContext> pack(List<RagRetrieveResponse.RagNode> nodes) {
+        if (nodes == null || nodes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 按文档分组，保留每个切片在检索结果中的名次（越小越相关）
+        Map<Long, List<Block>> byDocument = new LinkedHashMap<>();
+        for (int rank = 0; rank < nodes.size(); rank++) {
+            RagRetrieveResponse.RagNode node = nodes.get(rank);
+            if (node == null || node.getContext() == null || node.getContext().isBlank()) {
+                continue;
+            }
+            byDocument.computeIfAbsent(node.getDocumentId(), k -> new ArrayList<>())
+                    .add(new Block(node.getDocumentId(), node.getContext().strip(), rank));
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        for (List<Block> group : byDocument.values()) {
+            blocks.addAll(merge(group));
+        }
+        blocks.sort((a, b) -> Integer.compare(a.rank, b.rank));
+
+        List<PackedContext> packed = new ArrayList<>();
+        int remaining = maxTokens;
+        for (Block block : blocks) {
+            int tokens = tokenCounter.count(block.text);
+            if (tokens <= remaining) {
+                packed.add(new PackedContext(block.documentId, block.text));
+                remaining -= tokens;
+            } else if (packed.isEmpty()) {
+                // 最相关的一段本身就超出预算时截断保留，而不是一段都不给
+                packed.add(new PackedContext(block.documentId, tokenCounter.truncate(block.text, remaining)));
+                remaining = 0;
+            }
+            // 放不下的段落跳过，继续尝试更短的后续段落
+            if (remaining <= 0) {
+                break;
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * 反复合并同一文档内首尾重叠或互相包含的切片，直到没有可合并的为止。
+     */
+    private List<Block> merge(List<Block> group) {
+        List<Block> blocks = new ArrayList<>(group);
+        boolean merged = true;
+        while (merged && blocks.size() > 1) {
+            merged = false;
+            outer:
+            for (int i = 0; i < blocks.size(); i++) {
+                for (int j = 0; j < blocks.size(); j++) {
+                    if (i == j) {
+                        continue;
+                    }
+                    Block a = blocks.get(i);
+                    Block b = blocks.get(j);
+                    String combined = null;
+                    if (a.text.contains(b.text)) {
+                        combined = a.text;
+                    } else {
+                        int overlap = overlap(a.text, b.text);
+                        if (overlap > 0) {
+                            combined = a.text + b.text.substring(overlap);
+                        }
+                    }
+                    if (combined != null) {
+                        Block result = new Block(a.documentId, combined, Math.min(a.rank, b.rank));
+                        blocks.remove(Math.max(i, j));
+                        blocks.remove(Math.min(i, j));
+                        blocks.add(result);
+                        merged = true;
+                        break outer;
+                    }
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * 返回 a 的后缀与 b 的前缀的最长重叠长度，不足 minOverlapChars 时返回 0。
+     * 对 "b 前缀 + 分隔符 + a 后缀" 计算 KMP 前缀函数，线性时间内得到结果。
+     */
+    private int overlap(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), maxOverlapChars);
+        if (max < minOverlapChars) {
+            return 0;
+        }
+        String s = b.substring(0, max) + '\u0000' + a.substring(a.length() - max);
+        int[] pi = new int[s.length()];
+        for (int i = 1; i < s.length(); i++) {
+            int k = pi[i - 1];
+            while (k > 0 && s.charAt(i) != s.charAt(k)) {
+                k = pi[k - 1];
+            }
+            if (s.charAt(i) == s.charAt(k)) {
+                k++;
+            }
+            pi[i] = k;
+        }
+        int overlap = pi[s.length() - 1];
+        return overlap >= minOverlapChars ? overlap : 0;
+    }
+
+    private record Block(Long documentId, String text, int rank) {
+    }
+
+    public record PackedContext(Long documentId, String text) {
+    }
+}
@@ -0,0 +1,108 @@
+package com.dwinovo.safrag.utils;
+
+import com.dwinovo.safrag.common.BusinessException;
+import com.dwinovo.safrag.common.StatusEnum;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次请求的截止时间，由 DeadlineInterceptor 在控制器入口设置，切片任务按每次尝试设置。
+ * 阻塞调用链（检索、数据库、S3、非流式模型调用）从当前线程读取，下游每次调用只使用剩余的预算；
+ * 交给其他线程执行时用 wrap 带过去。响应式链路没有固定的线程，由调用方显式传递。
+ */
+public class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * 当前线程上的截止时间，没有时返回 null。
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    public static void set(Deadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * 下游调用可用的时间：配置的超时与当前线程剩余预算取小者，timeoutMs 不大于 0 表示下游本身不设超时。
+     * 当前线程没有截止时间时原样返回 timeoutMs；已过期时抛出 DEADLINE_EXCEEDED。
+     */
+    public static long budget(long timeoutMs) {
+        return budget(current(), timeoutMs);
+    }
+
+    public static long budget(Deadline deadline, long timeoutMs) {
+        if (deadline == null) {
+            return timeoutMs;
+        }
+        deadline.check();
+        long remaining = Math.max(1L, deadline.remainingMillis());
+        return timeoutMs > 0 ? Math.min(timeoutMs, remaining) : remaining;
+    }
+
+    /**
+     * 在执行时绑定提交时所在线程的截止时间。
+     */
+    public static Runnable wrap(Runnable task) {
+        Deadline deadline = current();
+        return deadline == null ? task : () -> deadline.run(task);
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Deadline deadline = current();
+        return deadline == null ? task : () -> deadline.call(task);
+    }
+
+    public long remainingMillis() {
+        return Math.max(0L, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    public void check() {
+        if (isExpired()) {
+            throw new BusinessException(StatusEnum.DEADLINE_EXCEEDED);
+        }
+    }
+
+    /**
+     * 在当前线程绑定本截止时间执行 task，结束后恢复原来的值。
+     */
+    public void run(Runnable task) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            set(previous);
+        }
+    }
+
+    public <T> T call(Callable<T> task) throws Exception {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            set(previous);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.dwinovo.safrag.utils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.springframework.stereotype.Component;
+
+/**
+ * 关键词检索用的分词：中日韩文字按相邻两字切分（单字成段时保留单字），
+ * 其余字母数字按词切分并转小写；带 - _ . 连接的编号（如 AB-1234）整体保留，同时拆出各部分。
+ */
+@Component
+public class KeywordTokenizer {
+
+    public List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder cjk = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        int i = 0;
+        while (i < normalized.length()) {
+            int cp = normalized.codePointAt(i);
+            int next = i + Character.charCount(cp);
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                cjk.appendCodePoint(cp);
+            } else if (Character.isLetterOrDigit(cp)) {
+                flushCjk(cjk, tokens);
+                word.appendCodePoint(cp);
+            } else if (isConnector(cp) && word.length() > 0 && next < normalized.length()
+                    && Character.isLetterOrDigit(normalized.codePointAt(next)) && !isCjk(normalized.codePointAt(next))) {
+                word.appendCodePoint(cp);
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjk, tokens);
+            }
+            i = next;
+        }
+        flushWord(word, tokens);
+        flushCjk(cjk, tokens);
+        return tokens;
+    }
+
+    /**
+     * 提取查询中的编号类词（同时含字母与数字，或带连接符），用于判断是否为精确词查询。
+     */
+    public Set<String> identifiers(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String token : tokenize(text)) {
+            if (token.length() < 3 || isCjk(token.codePointAt(0))) {
+                continue;
+            }
+            boolean hasDigit = token.chars().anyMatch(Character::isDigit);
+            boolean hasLetter = token.chars().anyMatch(Character::isLetter);
+            boolean hasConnector = token.chars().anyMatch(this::isConnector);
+            if ((hasDigit && hasLetter) || hasConnector) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() == 0) {
+            return;
+        }
+        String value = word.toString();
+        tokens.add(value);
+        if (value.chars().anyMatch(this::isConnector)) {
+            for (String part : value.split("[-_.]")) {
+                if (!part.isEmpty()) {
+                    tokens.add(part);
+                }
+            }
+        }
+        word.setLength(0);
+    }
+
+    private void flushCjk(StringBuilder cjk, List<String> tokens) {
+        if (cjk.length() == 0) {
+            return;
+        }
+        int[] cps = cjk.codePoints().toArray();
+        if (cps.length == 1) {
+            tokens.add(new String(cps, 0, 1));
+        } else {
+            for (int i = 0; i + 1 < cps.length; i++) {
+                tokens.add(new String(cps, i, 2));
+            }
+        }
+        cjk.setLength(0);
+    }
+
+    private boolean isConnector(int cp) {
+        return cp == '-' || cp == '_' || cp == '.';
+    }
+
+    private boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
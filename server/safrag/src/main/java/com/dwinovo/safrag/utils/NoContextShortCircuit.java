@@ -0,0 +1,34 @@
+package com.dwinovo.safrag.utils;
+
+import com.dwinovo.safrag.service.KnowledgeBaseVisibilityService;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * 检索不到知识片段时，提示词只会让模型回复固定的“抱歉，我不知道”。策略生效时直接返回这句话，
+ * 省去一次模型调用；全局开关关闭或任一所选知识库关闭了该策略时照常调用模型。
+ */
+@Component
+public class NoContextShortCircuit {
+
+    @Autowired
+    private KnowledgeBaseVisibilityService knowledgeBaseVisibilityService;
+
+    @Value("${chat.no-context.short-circuit:true}")
+    private boolean enabled;
+
+    /**
+     * knowledgeBaseIds 为权限过滤后的知识库，context 为检索或打包后的知识片段。
+     */
+    public boolean applies(List<Long> knowledgeBaseIds, List<?> context) {
+        return enabled && CollectionUtils.isEmpty(context)
+                && knowledgeBaseVisibilityService.shortCircuitsNoContext(knowledgeBaseIds);
+    }
+
+    public String answer() {
+        return RagPromptBuilder.NO_CONTEXT_ANSWER;
+    }
+}
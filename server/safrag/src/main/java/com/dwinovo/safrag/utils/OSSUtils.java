@@ -1,17 +1,24 @@
 package com.dwinovo.safrag.utils;
 
+import com.dwinovo.safrag.common.BusinessException;
 import com.dwinovo.safrag.pojo.S3Properties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @Slf4j
 @Component
@@ -23,6 +30,14 @@ public class OSSUtils {
     @Autowired
     private S3Properties properties; // 注入通用S3配置
 
+    @Autowired
+    @Qualifier("s3CircuitBreaker")
+    private CircuitBreaker circuitBreaker;
+
+    @Autowired
+    @Qualifier("s3Bulkhead")
+    private Bulkhead bulkhead;
+
     public String uploadImage(MultipartFile file) {
         return uploadMultipart(file, "images");
     }
@@ -50,6 +65,8 @@ public class OSSUtils {
             // 为了最佳性能并避免 Memory Overhead，如果能直接用 bytes 最好，但 multipart file可能很大
             // 这里我们用 RequestBody.fromInputStream, 它需要 size
             return uploadStream(file.getInputStream(), file.getSize(), file.getContentType(), namespace, extension);
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("文件上传到S3失败", e);
             throw new RuntimeException("文件上传失败，请稍后重试", e);
@@ -65,10 +82,13 @@ public class OSSUtils {
             PutObjectRequest putOb = PutObjectRequest.builder()
                     .bucket(bucketName)
                     .key(objectName)
+                    .overrideConfiguration(callTimeout())
                     .contentType("image/jpeg")
                     .build();
 
-            s3Client.putObject(putOb, RequestBody.fromBytes(data));
+            guarded(() -> s3Client.putObject(putOb, RequestBody.fromBytes(data)));
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("字节数据上传到S3失败", e);
             throw new RuntimeException("文件上传失败，请稍后重试", e);
@@ -86,11 +106,14 @@ public class OSSUtils {
             PutObjectRequest putOb = PutObjectRequest.builder()
                     .bucket(bucketName)
                     .key(objectName)
+                    .overrideConfiguration(callTimeout())
                     .contentType(contentType)
                     .build();
 
             // v2: fromInputStream requires length for correct header
-            s3Client.putObject(putOb, RequestBody.fromInputStream(inputStream, size));
+            guarded(() -> s3Client.putObject(putOb, RequestBody.fromInputStream(inputStream, size)));
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("上传流到S3失败", e);
             throw new RuntimeException("文件上传失败，请稍后重试", e);
@@ -136,11 +159,30 @@ public class OSSUtils {
             DeleteObjectRequest deleteReq = DeleteObjectRequest.builder()
                     .bucket(bucketName)
                     .key(objectName)
+                    .overrideConfiguration(callTimeout())
                     .build();
-            s3Client.deleteObject(deleteReq);
+            guarded(() -> s3Client.deleteObject(deleteReq));
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("从S3删除文件失败, objectName: {}", objectName, e);
             throw new RuntimeException("文件删除失败，请稍后重试", e);
         }
     }
+
+    /**
+     * 请求带截止时间时，本次调用的总耗时不超过剩余预算，已过期则不再发起。
+     */
+    private AwsRequestOverrideConfiguration callTimeout() {
+        return AwsRequestOverrideConfiguration.builder()
+                .apiCallTimeout(Duration.ofMillis(Deadline.budget(properties.getApiCallTimeoutMs())))
+                .build();
+    }
+
+    /**
+     * S3 调用经过熔断器与舱壁，存储不可用时快速失败
+     */
+    private <T> T guarded(Supplier<T> call) {
+        return CircuitBreaker.decorateSupplier(circuitBreaker, Bulkhead.decorateSupplier(bulkhead, call)).get();
+    }
 }
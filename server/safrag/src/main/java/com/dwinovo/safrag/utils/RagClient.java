@@ -0,0 +1,397 @@
+package com.dwinovo.safrag.utils;
+
+import com.dwinovo.safrag.pojo.RagClientProperties;
+import com.dwinovo.safrag.pojo.RagIngestRequest;
+import com.dwinovo.safrag.pojo.RagIngestResponse;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * 访问 Python RAG Server 的统一客户端：共享连接池与保活，按操作区分读超时，
+ * 幂等请求（检索、删除节点）在连接错误或 5xx 时自动重试，所有调用统一计量。
+ * 检索与删除节点经过 rag 熔断器与舱壁，熔断打开时直接抛出 CallNotPermittedException，不再重试。
+ * 默认使用 Apache HttpClient 连接池（HTTP/1.1，自动协商 gzip 响应）；开启 http2 时改用 JDK HttpClient。
+ * 响应式对话链路的检索走 retrieveAsync，基于 JDK HttpClient 的非阻塞 WebClient。
+ * 阻塞调用在当前线程有截止时间（Deadline）时只使用剩余预算，过期后不再发起请求或重试。
+ */
+@Slf4j
+@Component
+public class RagClient {
+
+    private static final String OP_RETRIEVE = "retrieve";
+    private static final String OP_INGEST = "ingest";
+    private static final String OP_DELETE_NODES = "delete_nodes";
+
+    @Autowired
+    private RagClientProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("ragCircuitBreaker")
+    private CircuitBreaker circuitBreaker;
+
+    @Autowired
+    @Qualifier("ragBulkhead")
+    private Bulkhead bulkhead;
+
+    @Value("${rag.server.host:}")
+    private String ragServerHost;
+
+    private CloseableHttpClient pooledClient;
+    private java.net.http.HttpClient jdkClient;
+    // 仅供 retrieveAsync 使用；开启 http2 时与 jdkClient 共用
+    private java.net.http.HttpClient asyncClient;
+
+    private RestClient retrieveClient;
+    private RestClient ingestClient;
+    private RestClient deleteClient;
+    private WebClient reactiveClient;
+
+    @PostConstruct
+    public void init() {
+        if (properties.isHttp2()) {
+            jdkClient = java.net.http.HttpClient.newBuilder()
+                    .version(java.net.http.HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(properties.getConnectTimeoutMs()))
+                    .build();
+        } else {
+            PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                    .setMaxConnTotal(properties.getMaxConnections())
+                    .setMaxConnPerRoute(properties.getMaxConnections())
+                    .setDefaultConnectionConfig(ConnectionConfig.custom()
+                            .setConnectTimeout(Timeout.ofMilliseconds(properties.getConnectTimeoutMs()))
+                            .setTimeToLive(TimeValue.ofSeconds(properties.getKeepAliveSeconds() * 10))
+                            .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                            .build())
+                    .build();
+            pooledClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(properties.getKeepAliveSeconds()))
+                    .evictIdleConnections(TimeValue.ofSeconds(properties.getKeepAliveSeconds()))
+                    .evictExpiredConnections()
+                    // 重试由本类按操作是否幂等决定
+                    .disableAutomaticRetries()
+                    .build();
+            new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "rag").bindTo(meterRegistry);
+        }
+        retrieveClient = buildClient(properties.getRetrieveTimeoutMs());
+        ingestClient = buildClient(properties.getIngestTimeoutMs());
+        deleteClient = buildClient(properties.getDeleteTimeoutMs());
+        asyncClient = jdkClient != null ? jdkClient : java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(properties.getConnectTimeoutMs()))
+                .build();
+        reactiveClient = WebClient.builder()
+                .clientConnector(new JdkClientHttpConnector(asyncClient))
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (pooledClient != null) {
+            pooledClient.close();
+        }
+        if (jdkClient != null) {
+            jdkClient.close();
+        }
+        if (asyncClient != null && asyncClient != jdkClient) {
+            asyncClient.close();
+        }
+    }
+
+    public boolean isConfigured() {
+        return StringUtils.hasText(ragServerHost);
+    }
+
+    /**
+     * 检索知识片段；非 2xx 或业务码异常时抛出，调用方决定如何降级。
+     */
+    public List<RagRetrieveResponse.RagNode> retrieve(String query, List<Long> knowledgeBaseIds, int topK) {
+        Map<String, Object> payload = new HashMap<>(4);
+        payload.put("query_text", query);
+        payload.put("allowed_knowledge_base_ids", knowledgeBaseIds);
+        payload.put("top_k", topK);
+
+        RagRetrieveResponse body = execute(OP_RETRIEVE, true, () -> retrieveClient.post()
+                .uri(url("retrieve"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .body(payload)
+                .retrieve()
+                .body(RagRetrieveResponse.class));
+        return nodes(body);
+    }
+
+    /**
+     * retrieve 的非阻塞版本：等待响应期间不占用任何线程。与 retrieve 共用熔断器、舱壁、
+     * 重试次数与计量；请求体较小，不做 gzip 压缩。
+     */
+    public Mono<List<RagRetrieveResponse.RagNode>> retrieveAsync(String query, List<Long> knowledgeBaseIds, int topK) {
+        if (!isConfigured()) {
+            return Mono.error(new IllegalStateException("RAG Server 未配置"));
+        }
+        Map<String, Object> payload = new HashMap<>(4);
+        payload.put("query_text", query);
+        payload.put("allowed_knowledge_base_ids", knowledgeBaseIds);
+        payload.put("top_k", topK);
+
+        return Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return reactiveClient.post()
+                            .uri(url("retrieve"))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .accept(MediaType.APPLICATION_JSON)
+                            .bodyValue(payload)
+                            .retrieve()
+                            .bodyToMono(RagRetrieveResponse.class)
+                            .timeout(Duration.ofMillis(properties.getRetrieveTimeoutMs()))
+                            .transformDeferred(BulkheadOperator.of(bulkhead))
+                            .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                            .doOnSuccess(body -> record(OP_RETRIEVE, "success", start))
+                            .doOnError(ex -> record(OP_RETRIEVE, reactiveOutcome(ex), start));
+                })
+                .retryWhen(Retry.backoff(Math.max(0, properties.getMaxRetries()),
+                                Duration.ofMillis(properties.getRetryBackoffMs()))
+                        .jitter(0)
+                        .filter(this::retryable)
+                        .doBeforeRetry(signal -> Counter.builder("rag.client.retries")
+                                .tag("operation", OP_RETRIEVE)
+                                .register(meterRegistry)
+                                .increment())
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("RAG 检索返回异常: null")))
+                .map(this::nodes);
+    }
+
+    private List<RagRetrieveResponse.RagNode> nodes(RagRetrieveResponse body) {
+        if (body == null || body.getCode() == null || body.getCode() != 200) {
+            throw new IllegalStateException("RAG 检索返回异常: " + (body != null ? body.getMessage() : null));
+        }
+        if (body.getData() == null || body.getData().getNodes() == null) {
+            return Collections.emptyList();
+        }
+        return body.getData().getNodes().stream()
+                .filter(node -> node.getContext() != null && !node.getContext().isEmpty())
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * 切片不是幂等操作（RAG Server 会写入节点），这里不重试，交给切片任务的退避重试处理。
+     */
+    public RagIngestResponse ingest(RagIngestRequest request) {
+        return execute(OP_INGEST, false, () -> ingestClient.post()
+                .uri(url("ingest"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .body(request)
+                .retrieve()
+                .body(RagIngestResponse.class));
+    }
+
+    public void deleteNodes(Long knowledgeBaseId, Long documentId) {
+        execute(OP_DELETE_NODES, true, () -> deleteClient.delete()
+                .uri(url("nodes") + "?knowledge_base_id={kb}&document_id={doc}", knowledgeBaseId, documentId)
+                .retrieve()
+                .toBodilessEntity());
+    }
+
+    private <T> T execute(String operation, boolean idempotent, Supplier<T> call) {
+        if (!isConfigured()) {
+            throw new IllegalStateException("RAG Server 未配置");
+        }
+        int maxAttempts = idempotent ? Math.max(0, properties.getMaxRetries()) + 1 : 1;
+        // 切片耗时以分钟计且并发已由切片线程数限制，不计入熔断统计，避免被当作慢调用打开熔断
+        Supplier<T> guarded = OP_INGEST.equals(operation)
+                ? call
+                : CircuitBreaker.decorateSupplier(circuitBreaker, Bulkhead.decorateSupplier(bulkhead, call));
+        Deadline deadline = Deadline.current();
+        for (int attempt = 1; ; attempt++) {
+            if (deadline != null) {
+                deadline.check();
+            }
+            long start = System.nanoTime();
+            try {
+                T result = guarded.get();
+                record(operation, "success", start);
+                return result;
+            } catch (CallNotPermittedException | BulkheadFullException ex) {
+                record(operation, "rejected", start);
+                throw ex;
+            } catch (RestClientException ex) {
+                boolean retryable = ex instanceof ResourceAccessException || ex instanceof HttpServerErrorException;
+                record(operation, outcome(ex), start);
+                if (!retryable || attempt >= maxAttempts || !backoff(attempt, deadline)) {
+                    throw ex;
+                }
+                Counter.builder("rag.client.retries").tag("operation", operation).register(meterRegistry).increment();
+                log.debug("RAG {} 第 {} 次请求失败，准备重试: {}", operation, attempt, ex.getMessage());
+            }
+        }
+    }
+
+    private boolean backoff(int attempt, Deadline deadline) {
+        long delay = properties.getRetryBackoffMs() << Math.min(attempt - 1, 10);
+        if (deadline != null && deadline.remainingMillis() <= delay) {
+            // 退避结束时已超出截止时间，重试也无人等待结果
+            return false;
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException ex) {
+            // 调用方已放弃（例如对话准备超时），不再重试
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void record(String operation, String outcome, long start) {
+        Timer.builder("rag.client.requests")
+                .description("调用 RAG Server 的耗时")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean retryable(Throwable ex) {
+        return ex instanceof WebClientRequestException || ex instanceof TimeoutException
+                || ex instanceof WebClientResponseException response && response.getStatusCode().is5xxServerError();
+    }
+
+    private String reactiveOutcome(Throwable ex) {
+        if (ex instanceof CallNotPermittedException || ex instanceof BulkheadFullException) {
+            return "rejected";
+        }
+        if (ex instanceof WebClientRequestException || ex instanceof TimeoutException) {
+            return "io_error";
+        }
+        if (ex instanceof WebClientResponseException response && response.getStatusCode().is5xxServerError()) {
+            return "server_error";
+        }
+        return "client_error";
+    }
+
+    private String outcome(RestClientException ex) {
+        if (ex instanceof ResourceAccessException) {
+            return "io_error";
+        }
+        if (ex instanceof HttpServerErrorException) {
+            return "server_error";
+        }
+        return "client_error";
+    }
+
+    private String url(String path) {
+        return ragServerHost.endsWith("/") ? ragServerHost + path : ragServerHost + "/" + path;
+    }
+
+    private RestClient buildClient(long readTimeoutMs) {
+        ClientHttpRequestFactory factory;
+        if (pooledClient != null) {
+            HttpComponentsClientHttpRequestFactory pooled = new HttpComponentsClientHttpRequestFactory(pooledClient);
+            pooled.setConnectionRequestTimeout(Duration.ofMillis(properties.getConnectionRequestTimeoutMs()));
+            pooled.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+            pooled.setHttpContextFactory((method, uri) -> deadlineContext(readTimeoutMs));
+            factory = pooled;
+        } else {
+            // JDK HttpClient 的读超时只能按工厂设置，截止时间只在每次尝试前检查
+            JdkClientHttpRequestFactory jdk = new JdkClientHttpRequestFactory(jdkClient);
+            jdk.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+            factory = jdk;
+        }
+        RestClient.Builder builder = RestClient.builder().requestFactory(factory);
+        if (properties.isRequestCompression()) {
+            builder.requestInterceptor(gzipRequestBody());
+        }
+        return builder.build();
+    }
+
+    /**
+     * 当前线程有截止时间时，本次请求的取连接与读超时不超过剩余预算；没有时返回 null，沿用工厂的设置。
+     */
+    private HttpContext deadlineContext(long readTimeoutMs) {
+        if (Deadline.current() == null) {
+            return null;
+        }
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(
+                        Deadline.budget(properties.getConnectionRequestTimeoutMs())))
+                .setResponseTimeout(Timeout.ofMilliseconds(Deadline.budget(readTimeoutMs)))
+                .build());
+        return context;
+    }
+
+    private ClientHttpRequestInterceptor gzipRequestBody() {
+        return (request, body, execution) -> {
+            if (body.length < properties.getRequestCompressionMinBytes()) {
+                return execution.execute(request, body);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(body);
+            }
+            request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            request.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+            return execution.execute(request, out.toByteArray());
+        };
+    }
+}
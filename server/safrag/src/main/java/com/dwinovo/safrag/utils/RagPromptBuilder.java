@@ -0,0 +1,115 @@
+package com.dwinovo.safrag.utils;
+
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 拼装知识库问答发给模型的消息：问答要求、会话历史、打包后的知识片段与用户问题。
+ * 默认采用稳定布局，固定指令作为第一条系统消息，其后依次是摘要与历史，每轮变化的知识片段和问题放在末尾，
+ * 同一会话逐轮只在末尾追加，模型服务的前缀缓存可以命中此前的全部内容。
+ */
+@Component
+public class RagPromptBuilder {
+
+    public enum Layout {
+        // 固定指令 → 摘要与历史 → 知识片段 → 问题
+        STABLE,
+        // 历史 → 一条包含指令、知识片段与问题的用户消息（旧布局）
+        INLINE
+    }
+
+    public enum ContextPlacement {
+        // 知识片段与问题合为最后一条用户消息
+        USER,
+        // 知识片段作为问题之前单独的一条系统消息
+        SYSTEM
+    }
+
+    private static final String QA_INSTRUCTION = String.join("\n",
+            "你是一名企业知识库问答助手，需要严格遵循以下要求：",
+            "1. 依据提供的知识片段作答，不得编造、猜测或引用未出现的信息。",
+            "2. 如果知识片段不足以支持答案，可以回复“抱歉，我不知道”，并可以建议用户补充信息。",
+            "3. 你的分析和回答必须基于提供的知识片段",
+            "3. 使用中文。");
+    // 没有知识片段时的固定回答；开启无上下文短路时不调用模型，直接返回这句话
+    public static final String NO_CONTEXT_ANSWER = "抱歉，我不知道";
+    private static final String NO_CONTEXT_NOTICE = String.join("\n",
+            "当前未检索到任何知识片段。",
+            "请直接回复“" + NO_CONTEXT_ANSWER + "”，不得自行发挥。");
+    private static final SystemMessage INSTRUCTION_MESSAGE = new SystemMessage(QA_INSTRUCTION);
+
+    @Autowired
+    private ContextPacker contextPacker;
+
+    @Value("${chat.prompt.layout:stable}")
+    private String layoutName;
+
+    @Value("${chat.prompt.context-placement:user}")
+    private String contextPlacementName;
+
+    private Layout layout;
+    private ContextPlacement contextPlacement;
+
+    @PostConstruct
+    public void init() {
+        layout = Layout.valueOf(layoutName.trim().toUpperCase(Locale.ROOT));
+        contextPlacement = ContextPlacement.valueOf(contextPlacementName.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * 合并同一文档内重叠的切片，并按相关度填入 token 预算后拼装。
+     */
+    public List<Message> messages(List<Message> history, String question, List<RagRetrieveResponse.RagNode> nodes) {
+        return messagesPacked(history, question, contextPacker.pack(nodes));
+    }
+
+    /**
+     * 使用已打包好的知识片段拼装，调用方需要知道实际引用了哪些片段时使用。
+     * 历史中只有用户原始问题与回答，往轮的知识片段不会进入历史。
+     */
+    public List<Message> messagesPacked(List<Message> history, String question,
+                                        List<ContextPacker.PackedContext> contexts) {
+        List<Message> messages = new ArrayList<>(history.size() + 3);
+        if (layout == Layout.INLINE) {
+            messages.addAll(history);
+            messages.add(new UserMessage(QA_INSTRUCTION + "\n\n" + contextBlock(contexts) + "\n\n" + question(question)));
+            return messages;
+        }
+        messages.add(INSTRUCTION_MESSAGE);
+        messages.addAll(history);
+        if (contextPlacement == ContextPlacement.SYSTEM) {
+            messages.add(new SystemMessage(contextBlock(contexts)));
+            messages.add(new UserMessage(question(question)));
+        } else {
+            messages.add(new UserMessage(contextBlock(contexts) + "\n\n" + question(question)));
+        }
+        return messages;
+    }
+
+    private String contextBlock(List<ContextPacker.PackedContext> contexts) {
+        if (contexts.isEmpty()) {
+            return NO_CONTEXT_NOTICE;
+        }
+        StringBuilder builder = new StringBuilder("以下是可参考的知识片段：\n");
+        for (int i = 0; i < contexts.size(); i++) {
+            ContextPacker.PackedContext context = contexts.get(i);
+            builder.append("【知识片段").append(i + 1).append("】\n");
+            builder.append("Document ID: ").append(context.documentId()).append("\n");
+            builder.append(context.text()).append("\n\n");
+        }
+        return builder.toString().stripTrailing();
+    }
+
+    private String question(String originalInput) {
+        return "用户问题：" + originalInput;
+    }
+}
@@ -0,0 +1,92 @@
+package com.dwinovo.safrag.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * 合并模型输出的小分片后再写入 SSE：累计达到 maxBytes 或距首个未发送分片超过 intervalMs 时刷新，
+ * 以减少逐 token 写出带来的系统调用与帧开销。首个分片总是立即发送，不影响首字延迟。
+ */
+public class SseChunkCoalescer {
+
+    @FunctionalInterface
+    public interface Sender {
+        void send(String data) throws IOException;
+    }
+
+    private final Sender sender;
+    private final Scheduler scheduler;
+    private final long intervalMs;
+    private final int maxBytes;
+    private final Runnable onSendFailure;
+
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingBytes;
+    private boolean firstSent;
+    private boolean failed;
+    private Disposable scheduledFlush;
+
+    public SseChunkCoalescer(Sender sender, Scheduler scheduler, long intervalMs, int maxBytes, Runnable onSendFailure) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.intervalMs = intervalMs;
+        this.maxBytes = maxBytes;
+        this.onSendFailure = onSendFailure;
+    }
+
+    public void append(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        boolean flushNow;
+        synchronized (this) {
+            if (failed) {
+                return;
+            }
+            pending.append(chunk);
+            pendingBytes += chunk.getBytes(StandardCharsets.UTF_8).length;
+            flushNow = !firstSent || intervalMs <= 0 || pendingBytes >= maxBytes;
+            if (!flushNow && scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即发送所有积压内容；流结束前必须调用。
+     */
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.dispose();
+            scheduledFlush = null;
+        }
+        if (failed || pending.isEmpty()) {
+            return;
+        }
+        String data = pending.toString();
+        pending.setLength(0);
+        pendingBytes = 0;
+        try {
+            sender.send(data);
+            firstSent = true;
+        } catch (IOException | IllegalStateException ex) {
+            failed = true;
+            onSendFailure.run();
+        }
+    }
+
+    public synchronized void discard() {
+        failed = true;
+        pending.setLength(0);
+        if (scheduledFlush != null) {
+            scheduledFlush.dispose();
+            scheduledFlush = null;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.dwinovo.safrag.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 单个 SSE 连接的有界发送队列：生产方只入队、不阻塞，由一个虚拟线程按顺序写出。
+ * 积压超过 maxEvents 时按溢出策略处理；无论哪种策略，积压字节超过 maxBytes 都会断开连接，
+ * 客户端可带 Last-Event-ID 重连补发。
+ */
+public class SseOutbox {
+
+    public enum Overflow {
+        // 合并积压的 message 事件，事件数回落但内容不丢
+        COALESCE,
+        // 直接断开慢连接
+        DROP,
+        // 通知上游暂停请求新的分片，积压回落到一半后恢复
+        PAUSE
+    }
+
+    public interface Listener {
+
+        void onOverflow(String action);
+
+        void onBacklogChange(long deltaBytes);
+
+        /**
+         * 积压从上限回落到一半以下。
+         */
+        void onDrained(SseOutbox outbox);
+
+        /**
+         * 连接因写出失败或溢出被关闭。
+         */
+        void onClosed(SseOutbox outbox);
+    }
+
+    private final SseEmitter emitter;
+    private final Executor executor;
+    private final int maxEvents;
+    private final long maxBytes;
+    private final Overflow policy;
+    private final Listener listener;
+
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private long pendingBytes;
+    private boolean draining;
+    private boolean pressured;
+    private boolean finishing;
+    private boolean closed;
+    // 最近一次入队事件的时间，心跳不计入
+    private volatile long lastOfferNanos = System.nanoTime();
+
+    public SseOutbox(SseEmitter emitter, Executor executor, int maxEvents, long maxBytes, Overflow policy,
+                     Listener listener) {
+        this.emitter = emitter;
+        this.executor = executor;
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    public SseEmitter emitter() {
+        return emitter;
+    }
+
+    /**
+     * 入队一个事件；连接已关闭或已结束时忽略。
+     */
+    public void offer(String id, String name, Object data, MediaType mediaType) {
+        boolean dropped = false;
+        synchronized (this) {
+            if (closed || finishing) {
+                return;
+            }
+            lastOfferNanos = System.nanoTime();
+            enqueue(new Entry(id, name, data, mediaType, estimateBytes(data), false, false));
+            if (queue.size() > maxEvents || pendingBytes > maxBytes) {
+                dropped = overflow();
+            }
+            if (!dropped) {
+                scheduleDrain();
+            }
+        }
+        if (dropped) {
+            listener.onOverflow("dropped");
+            emitter.complete();
+            listener.onClosed(this);
+        }
+    }
+
+    /**
+     * 写完已入队的事件后结束连接。
+     */
+    public synchronized void finish() {
+        if (closed || finishing) {
+            return;
+        }
+        finishing = true;
+        queue.addLast(new Entry(null, null, null, null, 0, true, false));
+        scheduleDrain();
+    }
+
+    /**
+     * 队列为空时写一条 SSE 注释保活，有积压时写出本身就能发现断开，不再追加。
+     */
+    public synchronized void heartbeat() {
+        if (closed || finishing || !queue.isEmpty()) {
+            return;
+        }
+        queue.addLast(new Entry(null, null, null, null, 0, false, true));
+        scheduleDrain();
+    }
+
+    public long lastOfferNanos() {
+        return lastOfferNanos;
+    }
+
+    /**
+     * 连接已由容器关闭时调用，丢弃积压。
+     */
+    public synchronized void close() {
+        closed = true;
+        discard();
+    }
+
+    /**
+     * PAUSE 策略下积压达到上限时为 true，上游应暂停请求新分片。
+     */
+    public synchronized boolean isPressured() {
+        return policy == Overflow.PAUSE && !closed && queue.size() >= maxEvents;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * 调用方需持有 this；返回 true 表示连接需要断开。
+     */
+    private boolean overflow() {
+        if (policy == Overflow.DROP || pendingBytes > maxBytes) {
+            closed = true;
+            discard();
+            return true;
+        }
+        if (policy == Overflow.COALESCE) {
+            coalesce();
+            listener.onOverflow("coalesced");
+        } else if (!pressured) {
+            pressured = true;
+            listener.onOverflow("paused");
+        }
+        return false;
+    }
+
+    /**
+     * 把相邻的 message 事件合并为一个，保留后一个事件的 ID，使 Last-Event-ID 仍然准确。
+     */
+    private void coalesce() {
+        Deque<Entry> merged = new ArrayDeque<>(queue.size());
+        for (Entry entry : queue) {
+            Entry last = merged.peekLast();
+            if (last != null && last.isMessage() && entry.isMessage()) {
+                merged.pollLast();
+                merged.addLast(new Entry(entry.id, entry.name, String.valueOf(last.data) + entry.data,
+                        entry.mediaType, last.bytes + entry.bytes, false, false));
+            } else {
+                merged.addLast(entry);
+            }
+        }
+        queue.clear();
+        queue.addAll(merged);
+    }
+
+    private void enqueue(Entry entry) {
+        queue.addLast(entry);
+        pendingBytes += entry.bytes;
+        listener.onBacklogChange(entry.bytes);
+    }
+
+    private void discard() {
+        if (pendingBytes != 0) {
+            listener.onBacklogChange(-pendingBytes);
+        }
+        queue.clear();
+        pendingBytes = 0;
+    }
+
+    private void scheduleDrain() {
+        if (!draining) {
+            draining = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            boolean drained = false;
+            synchronized (this) {
+                entry = closed ? null : queue.pollFirst();
+                if (entry == null) {
+                    draining = false;
+                    return;
+                }
+                pendingBytes -= entry.bytes;
+                listener.onBacklogChange(-entry.bytes);
+                if (pressured && queue.size() <= maxEvents / 2) {
+                    pressured = false;
+                    drained = true;
+                }
+            }
+            if (drained) {
+                listener.onDrained(this);
+            }
+            try {
+                if (entry.complete) {
+                    synchronized (this) {
+                        closed = true;
+                        draining = false;
+                    }
+                    emitter.complete();
+                    return;
+                }
+                if (entry.comment) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    continue;
+                }
+                // 慢客户端只阻塞这个虚拟线程，不影响模型流与其他连接
+                emitter.send(SseEmitter.event().id(entry.id).name(entry.name).data(entry.data, entry.mediaType));
+            } catch (IOException | IllegalStateException ex) {
+                synchronized (this) {
+                    closed = true;
+                    draining = false;
+                    discard();
+                }
+                listener.onClosed(this);
+                return;
+            }
+        }
+    }
+
+    private static int estimateBytes(Object data) {
+        if (data instanceof String text) {
+            return text.getBytes(StandardCharsets.UTF_8).length;
+        }
+        // 错误等结构化事件体积很小，按固定值估算
+        return 128;
+    }
+
+    private record Entry(String id, String name, Object data, MediaType mediaType, int bytes, boolean complete,
+                         boolean comment) {
+
+        boolean isMessage() {
+            return "message".equals(name) && data instanceof String;
+        }
+    }
+}
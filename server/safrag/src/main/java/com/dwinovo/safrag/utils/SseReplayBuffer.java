@@ -0,0 +1,50 @@
+package com.dwinovo.safrag.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.http.MediaType;
+
+/**
+ * 单个 SSE 流的定长重放缓冲：为每个事件分配递增序号，保留最近 capacity 个事件，
+ * 供断线重连时按 Last-Event-ID 补发。
+ */
+public class SseReplayBuffer {
+
+    public record Event(long seq, String name, Object data, MediaType mediaType) {
+    }
+
+    private final Event[] ring;
+    private long lastSeq;
+
+    public SseReplayBuffer(int capacity) {
+        this.ring = new Event[Math.max(1, capacity)];
+    }
+
+    public synchronized Event append(String name, Object data, MediaType mediaType) {
+        Event event = new Event(++lastSeq, name, data, mediaType);
+        ring[(int) (event.seq() % ring.length)] = event;
+        return event;
+    }
+
+    /**
+     * 返回序号大于 afterSeq 的事件；所需事件已被覆盖时返回 null。
+     */
+    public synchronized List<Event> since(long afterSeq) {
+        long from = Math.max(afterSeq, 0L) + 1;
+        if (from > lastSeq) {
+            return List.of();
+        }
+        if (lastSeq - from >= ring.length) {
+            return null;
+        }
+        List<Event> events = new ArrayList<>((int) (lastSeq - from + 1));
+        for (long seq = from; seq <= lastSeq; seq++) {
+            events.add(ring[(int) (seq % ring.length)]);
+        }
+        return events;
+    }
+
+    public synchronized long lastSeq() {
+        return lastSeq;
+    }
+}
@@ -0,0 +1,37 @@
+package com.dwinovo.safrag.utils;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.springframework.stereotype.Component;
+
+/**
+ * 基于 cl100k_base 的 token 估算，用于提示词预算控制，与具体模型的计费口径可能略有出入。
+ */
+@Component
+public class TokenCounter {
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return encoding.countTokens(text);
+    }
+
+    /**
+     * 截取不超过 maxTokens 个 token 的前缀，按字符边界截断。
+     */
+    public String truncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty() || maxTokens <= 0) {
+            return "";
+        }
+        EncodingResult result = encoding.encodeOrdinary(text, maxTokens);
+        if (!result.isTruncated()) {
+            return text;
+        }
+        return text.substring(0, result.getLastProcessedCharacterIndex() + 1);
+    }
+}
@@ -0,0 +1,193 @@
+package com.dwinovo.safrag.loadtest;
+
+import com.dwinovo.safrag.pojo.Level;
+import com.dwinovo.safrag.pojo.User;
+import com.dwinovo.safrag.service.ConversationService;
+import com.dwinovo.safrag.service.KnowledgeBaseService;
+import com.dwinovo.safrag.service.LevelService;
+import com.dwinovo.safrag.service.UserService;
+import com.dwinovo.safrag.utils.JwtUtil;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 对话链路压测：模型与 RAG Server 均为本地替身，只需 MySQL（DB_URL 等环境变量）。
+ * 默认不随 mvn test 运行，使用 mvn -Ploadtest test 执行，参数通过 -Dloadtest.* 覆盖。
+ */
+@Slf4j
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.ai.openai.api-key=stub",
+        "spring.ai.openai.base-url=http://127.0.0.1:1",
+        "spring.ai.openai.chat.options.model=stub-model",
+        "jwt.secret=${JWT_SECRET:safrag-load-test-secret-0123456789abcdef0123456789abcdef}",
+        "s3.endpoint=${S3_ENDPOINT:http://127.0.0.1:9000}",
+        "s3.public-endpoint=${S3_PUBLIC_ENDPOINT:http://127.0.0.1:9000}",
+        "s3.username=${S3_USERNAME:stub}",
+        "s3.password=${S3_PASSWORD:stub-password}",
+        "s3.bucket-name=${S3_BUCKET_NAME:safrag}"
+})
+class ChatLoadTest {
+
+    private static final String USER_PREFIX = "loadtest-user-";
+
+    private static StubRagServer ragServer;
+
+    @DynamicPropertySource
+    static void ragServerProperties(DynamicPropertyRegistry registry) throws IOException {
+        ragServer = StubRagServer.start(Long.getLong("loadtest.rag.latency-ms", 50L),
+                Integer.getInteger("loadtest.rag.nodes", 5));
+        registry.add("rag.server.host", ragServer::baseUrl);
+    }
+
+    @AfterAll
+    static void stopRagServer() {
+        if (ragServer != null) {
+            ragServer.close();
+        }
+    }
+
+    @TestConfiguration
+    static class StubModelConfig {
+
+        @Bean
+        @Primary
+        ChatModel stubChatModel(@Value("${loadtest.llm.first-token-delay-ms:300}") long firstTokenDelayMs,
+                                @Value("${loadtest.llm.tokens-per-second:50}") double tokensPerSecond,
+                                @Value("${loadtest.llm.reply-tokens:200}") int replyTokens) {
+            return new StubChatModel(firstTokenDelayMs, tokensPerSecond, replyTokens);
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private LevelService levelService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private KnowledgeBaseService knowledgeBaseService;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Value("${loadtest.concurrency:50}")
+    private int concurrency;
+
+    // 准入控制按用户限制并发，压测用户数默认与并发数相同
+    @Value("${loadtest.users:${loadtest.concurrency:50}}")
+    private int users;
+
+    // stream 为 SseEmitter 实现，stream/reactive 为响应式实现，用于对比两者
+    @Value("${loadtest.endpoint:stream}")
+    private String endpoint;
+
+    @Value("${loadtest.stream-timeout-seconds:120}")
+    private long streamTimeoutSeconds;
+
+    // 大于 0 时作为 CI 的回归门槛
+    @Value("${loadtest.max-p99-ttft-ms:0}")
+    private double maxP99TtftMs;
+
+    private final List<long[]> conversations = new ArrayList<>();
+    private Long knowledgeBaseOwner;
+    private Long knowledgeBaseId;
+
+    @AfterEach
+    void cleanUp() {
+        for (long[] conversation : conversations) {
+            conversationService.deleteConversation(conversation[0], conversation[1]);
+        }
+        if (knowledgeBaseId != null) {
+            knowledgeBaseService.deleteKnowledgeBase(knowledgeBaseOwner, knowledgeBaseId);
+        }
+    }
+
+    @Test
+    void concurrentChatStreams() throws InterruptedException {
+        List<User> pool = userPool(users);
+        knowledgeBaseOwner = pool.get(0).getId();
+        knowledgeBaseId = knowledgeBaseService.createKnowledgeBase(knowledgeBaseOwner, "loadtest", "压测用知识库");
+
+        List<URI> streams = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            User user = pool.get(i % pool.size());
+            Long conversationId = conversationService.createConversation(user.getId(), "loadtest-" + i);
+            conversations.add(new long[]{user.getId(), conversationId});
+            String token = jwtUtil.generateAccessToken(String.valueOf(user.getId()),
+                    Map.of("username", user.getUsername()));
+            streams.add(URI.create("http://127.0.0.1:" + port + "/api/agent/chat/" + endpoint
+                    + "?conversationId=" + conversationId
+                    + "&input=" + encode("压测问题 " + i + "：SafRAG 如何检索知识片段？")
+                    + "&knowledgeBaseIds=" + knowledgeBaseId
+                    + "&access_token=" + encode(token)));
+        }
+
+        // 峰值只统计平台线程，虚拟线程不计入，用于对比两种实现占用的线程数
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        SseLoadDriver.Report report = new SseLoadDriver(Duration.ofSeconds(streamTimeoutSeconds)).run(streams);
+        log.info("对话压测结果（{}，并发 {}，用户 {}，平台线程峰值 {}）\n{}", endpoint, concurrency, pool.size(),
+                threads.getPeakThreadCount(), report.format());
+
+        assertEquals(concurrency, report.completed(), "存在未完成的对话流: " + report.failures());
+        if (maxP99TtftMs > 0) {
+            assertTrue(report.p99TtftMs() <= maxP99TtftMs,
+                    "p99 TTFT " + report.p99TtftMs() + "ms 超过门槛 " + maxP99TtftMs + "ms");
+        }
+    }
+
+    /**
+     * 压测用户按固定用户名复用，重复运行不会持续新增用户。
+     */
+    private List<User> userPool(int size) {
+        List<Level> levels = levelService.listAllLevels();
+        assertFalse(levels.isEmpty(), "数据库中没有等级，无法创建压测用户");
+        int levelId = levels.get(0).getId();
+        List<User> pool = new ArrayList<>(size);
+        for (int i = 0; i < Math.max(size, 1); i++) {
+            String username = USER_PREFIX + i;
+            User user = userService.findByUsername(username);
+            if (user == null) {
+                user = userService.createUser(username, username, levelId, null);
+            }
+            pool.add(user);
+        }
+        return pool;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
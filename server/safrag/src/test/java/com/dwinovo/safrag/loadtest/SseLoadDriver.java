@@ -0,0 +1,201 @@
+package com.dwinovo.safrag.loadtest;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 同时打开多条 SSE 对话流，统计首字延迟（TTFT）与生成速度的分位数。
+ */
+public class SseLoadDriver {
+
+    private static final Pattern ERROR_CODE = Pattern.compile("\"code\"\\s*:\\s*(\\d+)");
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final Encoding encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    private final Duration streamTimeout;
+
+    public SseLoadDriver(Duration streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    /**
+     * 每个地址一条流，全部就绪后同时发起，等待所有流结束。
+     */
+    public Report run(List<URI> streams) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<StreamResult>> futures = new ArrayList<>(streams.size());
+        long began;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (URI uri : streams) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return open(uri);
+                }));
+            }
+            began = System.nanoTime();
+            start.countDown();
+        }
+        long wallNanos = System.nanoTime() - began;
+
+        List<StreamResult> results = new ArrayList<>(futures.size());
+        for (Future<StreamResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (Exception ex) {
+                results.add(StreamResult.failed("driver: " + ex.getMessage()));
+            }
+        }
+        return Report.of(results, wallNanos);
+    }
+
+    private StreamResult open(URI uri) {
+        long start = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(streamTimeout)
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                return StreamResult.failed("http " + response.statusCode());
+            }
+            long firstToken = 0L;
+            StringBuilder reply = new StringBuilder();
+            String event = "message";
+            StringBuilder data = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("event:")) {
+                        event = line.substring(6).trim();
+                    } else if (line.startsWith("data:")) {
+                        if (!data.isEmpty()) {
+                            data.append('\n');
+                        }
+                        data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+                    } else if (line.isEmpty()) {
+                        // 空行表示一个事件结束
+                        if ("message".equals(event) && !data.isEmpty()) {
+                            if (firstToken == 0L) {
+                                firstToken = System.nanoTime();
+                            }
+                            reply.append(data);
+                        } else if ("done".equals(event)) {
+                            long end = System.nanoTime();
+                            return StreamResult.completed(firstToken == 0L ? -1L : firstToken - start,
+                                    firstToken == 0L ? 0L : end - firstToken,
+                                    encoding.countTokensOrdinary(reply.toString()));
+                        } else if ("error".equals(event)) {
+                            Matcher matcher = ERROR_CODE.matcher(data);
+                            return StreamResult.failed("error " + (matcher.find() ? matcher.group(1) : data));
+                        }
+                        event = "message";
+                        data.setLength(0);
+                    }
+                }
+            }
+            return StreamResult.failed("closed before done");
+        } catch (Exception ex) {
+            return StreamResult.failed(ex.getClass().getSimpleName());
+        }
+    }
+
+    public record StreamResult(boolean completed, long ttftNanos, long generationNanos, int tokens, String error) {
+
+        static StreamResult completed(long ttftNanos, long generationNanos, int tokens) {
+            return new StreamResult(true, ttftNanos, generationNanos, tokens, null);
+        }
+
+        static StreamResult failed(String error) {
+            return new StreamResult(false, -1L, 0L, 0, error);
+        }
+    }
+
+    public record Report(int streams, int completed, Map<String, Integer> failures,
+                         double[] ttftMs, double[] tokensPerSecond, double wallSeconds) {
+
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+        static Report of(List<StreamResult> results, long wallNanos) {
+            List<Double> ttft = new ArrayList<>();
+            List<Double> throughput = new ArrayList<>();
+            Map<String, Integer> failures = new TreeMap<>();
+            int completed = 0;
+            for (StreamResult result : results) {
+                if (!result.completed()) {
+                    failures.merge(result.error(), 1, Integer::sum);
+                    continue;
+                }
+                completed++;
+                if (result.ttftNanos() >= 0) {
+                    ttft.add(result.ttftNanos() / 1_000_000.0);
+                }
+                if (result.generationNanos() > 0) {
+                    throughput.add(result.tokens() / (result.generationNanos() / 1_000_000_000.0));
+                }
+            }
+            return new Report(results.size(), completed, failures,
+                    percentiles(ttft), percentiles(throughput), wallNanos / 1_000_000_000.0);
+        }
+
+        /**
+         * 最近秩法计算 p50 / p90 / p99；没有样本时为 NaN。
+         */
+        private static double[] percentiles(List<Double> samples) {
+            double[] values = new double[QUANTILES.length];
+            if (samples.isEmpty()) {
+                Arrays.fill(values, Double.NaN);
+                return values;
+            }
+            List<Double> sorted = new ArrayList<>(samples);
+            sorted.sort(null);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                int rank = (int) Math.ceil(QUANTILES[i] * sorted.size());
+                values[i] = sorted.get(Math.max(rank - 1, 0));
+            }
+            return values;
+        }
+
+        public double p99TtftMs() {
+            return ttftMs[2];
+        }
+
+        public String format() {
+            return String.format(Locale.ROOT,
+                    "streams=%d completed=%d failures=%s wall=%.1fs%n"
+                            + "  ttft ms      p50=%.0f p90=%.0f p99=%.0f%n"
+                            + "  tokens/s     p50=%.1f p90=%.1f p99=%.1f",
+                    streams, completed, failures, wallSeconds,
+                    ttftMs[0], ttftMs[1], ttftMs[2],
+                    tokensPerSecond[0], tokensPerSecond[1], tokensPerSecond[2]);
+        }
+    }
+}
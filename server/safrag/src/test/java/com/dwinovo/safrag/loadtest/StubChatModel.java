@@ -0,0 +1,51 @@
+package com.dwinovo.safrag.loadtest;
+
+import java.time.Duration;
+import java.util.List;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+/**
+ * 压测用的确定性模型：首字延迟后按固定速率逐个输出 token，不访问任何外部服务。
+ */
+public class StubChatModel implements ChatModel {
+
+    private static final String[] WORDS = {
+            "根据", "知识库", "中的", "资料", "，", "该", "问题", "的", "答案", "如下", "。",
+            " the", " answer", " is", " based", " on", " the", " retrieved", " context", "."
+    };
+
+    private final long firstTokenDelayMs;
+    private final long tokenIntervalNanos;
+    private final int replyTokens;
+
+    public StubChatModel(long firstTokenDelayMs, double tokensPerSecond, int replyTokens) {
+        this.firstTokenDelayMs = firstTokenDelayMs;
+        this.tokenIntervalNanos = (long) (1_000_000_000L / Math.max(tokensPerSecond, 0.001));
+        this.replyTokens = replyTokens;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < replyTokens; i++) {
+            text.append(WORDS[i % WORDS.length]);
+        }
+        return response(text.toString());
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.interval(Duration.ofMillis(firstTokenDelayMs), Duration.ofNanos(tokenIntervalNanos))
+                .take(replyTokens)
+                .map(i -> response(WORDS[(int) (i % WORDS.length)]));
+    }
+
+    private ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
@@ -0,0 +1,70 @@
+package com.dwinovo.safrag.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * 本地替身 RAG Server：只实现 /retrieve，按配置的延迟返回固定的知识片段。
+ */
+public class StubRagServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private StubRagServer(HttpServer server) {
+        this.server = server;
+    }
+
+    public static StubRagServer start(long latencyMs, int nodeCount) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        byte[] body = retrieveBody(nodeCount);
+        server.createContext("/retrieve", exchange -> handle(exchange, latencyMs, body));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return new StubRagServer(server);
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static void handle(HttpExchange exchange, long latencyMs, byte[] body) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] retrieveBody(int nodeCount) {
+        StringBuilder json = new StringBuilder("{\"code\":200,\"message\":\"success\",\"data\":{\"nodes\":[");
+        for (int i = 0; i < nodeCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"node_id\":\"stub-").append(i)
+                    .append("\",\"document_id\":").append(i + 1)
+                    .append(",\"context\":\"压测用知识片段 ").append(i)
+                    .append("：SafRAG 将文档切片后写入向量库，检索时按相关度返回最相关的片段。\"}");
+        }
+        json.append("]}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package com.dwinovo.safrag.service.impl;
+
+import com.dwinovo.safrag.pojo.Node;
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import com.dwinovo.safrag.utils.KeywordTokenizer;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordIndexServiceImplTest {
+
+    private KeywordIndexServiceImpl index;
+
+    @BeforeEach
+    void setUp() {
+        index = new KeywordIndexServiceImpl();
+        ReflectionTestUtils.setField(index, "keywordTokenizer", new KeywordTokenizer());
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "ready", true);
+        ReflectionTestUtils.setField(index, "k1", 1.2);
+        ReflectionTestUtils.setField(index, "b", 0.75);
+    }
+
+    @Test
+    void ranksByBm25Score() {
+        index.indexNodes(1L, List.of(
+                node("n1", 10L, "退款流程说明"),
+                node("n2", 10L, "退款退款 退款的常见问题"),
+                node("n3", 11L, "发票开具流程")));
+        // 词频更高的 n2 排在前面，不含查询词的 n3 不出现
+        assertEquals(List.of("n2", "n1"), ids(index.search("退款", List.of(1L), 10)));
+    }
+
+    @Test
+    void rareTermsWeighMoreThanCommonOnes() {
+        index.indexNodes(1L, List.of(
+                node("n1", 10L, "common common"),
+                node("n2", 10L, "common rare"),
+                node("n3", 10L, "common other")));
+        assertEquals("n2", ids(index.search("common rare", List.of(1L), 10)).get(0));
+    }
+
+    @Test
+    void longerNodesAreNormalizedDown() {
+        index.indexNodes(1L, List.of(
+                node("short", 10L, "invoice"),
+                node("long", 10L, "invoice " + "filler ".repeat(50))));
+        assertEquals(List.of("short", "long"), ids(index.search("invoice", List.of(1L), 10)));
+    }
+
+    @Test
+    void findsIdentifiersAndTheirParts() {
+        index.indexNodes(1L, List.of(node("n1", 10L, "错误码 AB-1234 表示令牌过期"), node("n2", 10L, "其他内容")));
+        assertEquals(List.of("n1"), ids(index.search("ab-1234", List.of(1L), 10)));
+        assertEquals(List.of("n1"), ids(index.search("1234", List.of(1L), 10)));
+    }
+
+    @Test
+    void onlyReturnsAllowedKnowledgeBasesAndTopK() {
+        index.indexNodes(1L, List.of(node("a1", 10L, "alpha"), node("a2", 10L, "alpha alpha")));
+        index.indexNodes(2L, List.of(node("b1", 20L, "alpha alpha alpha")));
+        assertEquals(List.of("a2", "a1"), ids(index.search("alpha", List.of(1L), 10)));
+        assertEquals(List.of("b1"), ids(index.search("alpha", List.of(1L, 2L), 1)));
+    }
+
+    @Test
+    void removedDocumentsAndReindexedNodesAreNotSearchable() {
+        index.indexNodes(1L, List.of(node("n1", 10L, "alpha"), node("n2", 11L, "alpha")));
+        index.removeDocument(10L);
+        assertEquals(List.of("n2"), ids(index.search("alpha", List.of(1L), 10)));
+        // 同一节点重新写入时替换旧内容
+        index.indexNodes(1L, List.of(node("n2", 11L, "beta")));
+        assertTrue(index.search("alpha", List.of(1L), 10).isEmpty());
+        assertEquals(List.of("n2"), ids(index.search("beta", List.of(1L), 10)));
+    }
+
+    @Test
+    void disabledIndexIgnoresUpdatesAndSearches() {
+        ReflectionTestUtils.setField(index, "enabled", false);
+        index.indexNodes(1L, List.of(node("n1", 10L, "alpha")));
+        assertTrue(index.search("alpha", List.of(1L), 10).isEmpty());
+    }
+
+    private static Node node(String id, Long documentId, String context) {
+        Node node = new Node();
+        node.setId(id);
+        node.setDocumentId(documentId);
+        node.setContext(context);
+        return node;
+    }
+
+    private static List<String> ids(List<RagRetrieveResponse.RagNode> hits) {
+        return hits.stream().map(RagRetrieveResponse.RagNode::getNodeId).toList();
+    }
+}
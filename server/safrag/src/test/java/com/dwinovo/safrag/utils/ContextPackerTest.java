@@ -0,0 +1,121 @@
+package com.dwinovo.safrag.utils;
+
+import com.dwinovo.safrag.pojo.RagRetrieveResponse;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextPackerTest {
+
+    private static final String OVERLAP = "shared overlap text between two adjacent chunks. ";
+
+    private final TokenCounter tokenCounter = new TokenCounter();
+    private ContextPacker packer;
+
+    @BeforeEach
+    void setUp() {
+        packer = packer(10000);
+    }
+
+    @Test
+    void mergesChunksWhoseEndAndStartOverlap() {
+        List<ContextPacker.PackedContext> packed = packer.pack(List.of(
+                node(1L, "First part. " + OVERLAP),
+                node(1L, OVERLAP + "Second part.")));
+        assertEquals(1, packed.size());
+        assertEquals("First part. " + OVERLAP + "Second part.", packed.get(0).text());
+    }
+
+    @Test
+    void mergesRegardlessOfRetrievalOrder() {
+        List<ContextPacker.PackedContext> packed = packer.pack(List.of(
+                node(1L, OVERLAP + "Second part."),
+                node(1L, "First part. " + OVERLAP)));
+        assertEquals(1, packed.size());
+        assertEquals("First part. " + OVERLAP + "Second part.", packed.get(0).text());
+    }
+
+    @Test
+    void dropsChunksContainedInAnother() {
+        String whole = "Alpha beta gamma. " + OVERLAP + "Delta epsilon.";
+        List<ContextPacker.PackedContext> packed = packer.pack(List.of(node(1L, whole), node(1L, OVERLAP.strip())));
+        assertEquals(1, packed.size());
+        assertEquals(whole, packed.get(0).text());
+    }
+
+    @Test
+    void ignoresOverlapShorterThanTheMinimum() {
+        List<ContextPacker.PackedContext> packed = packer.pack(List.of(
+                node(1L, "Ends with short tail"),
+                node(1L, "short tail starts this one")));
+        assertEquals(2, packed.size());
+    }
+
+    @Test
+    void doesNotMergeAcrossDocuments() {
+        List<ContextPacker.PackedContext> packed = packer.pack(List.of(
+                node(1L, "First part. " + OVERLAP),
+                node(2L, OVERLAP + "Second part.")));
+        assertEquals(2, packed.size());
+        assertEquals(1L, packed.get(0).documentId());
+        assertEquals(2L, packed.get(1).documentId());
+    }
+
+    @Test
+    void keepsRelevanceOrderAndSkipsBlankNodes() {
+        List<ContextPacker.PackedContext> packed = packer.pack(List.of(
+                node(3L, "most relevant"),
+                node(4L, "  "),
+                node(5L, "less relevant")));
+        assertEquals(List.of("most relevant", "less relevant"),
+                packed.stream().map(ContextPacker.PackedContext::text).toList());
+    }
+
+    @Test
+    void stopsAtTheTokenBudgetButTriesShorterLaterBlocks() {
+        String large = "word ".repeat(40).strip();
+        String small = "tiny";
+        int budget = tokenCounter.count(large) + tokenCounter.count(small);
+        List<ContextPacker.PackedContext> packed = packer(budget).pack(List.of(
+                node(1L, large),
+                node(2L, large + " again"),
+                node(3L, small)));
+        assertEquals(List.of(1L, 3L), packed.stream().map(ContextPacker.PackedContext::documentId).toList());
+        int used = packed.stream().mapToInt(p -> tokenCounter.count(p.text())).sum();
+        assertTrue(used <= budget);
+    }
+
+    @Test
+    void truncatesTheFirstBlockWhenItAloneExceedsTheBudget() {
+        String large = "word ".repeat(100).strip();
+        List<ContextPacker.PackedContext> packed = packer(10).pack(List.of(node(1L, large), node(2L, "tiny")));
+        assertEquals(1, packed.size());
+        assertTrue(large.startsWith(packed.get(0).text()));
+        assertTrue(tokenCounter.count(packed.get(0).text()) <= 10);
+    }
+
+    @Test
+    void emptyInputPacksNothing() {
+        assertTrue(packer.pack(null).isEmpty());
+        assertTrue(packer.pack(List.of()).isEmpty());
+    }
+
+    private ContextPacker packer(int maxTokens) {
+        ContextPacker packer = new ContextPacker();
+        ReflectionTestUtils.setField(packer, "tokenCounter", tokenCounter);
+        ReflectionTestUtils.setField(packer, "maxTokens", maxTokens);
+        ReflectionTestUtils.setField(packer, "minOverlapChars", 32);
+        ReflectionTestUtils.setField(packer, "maxOverlapChars", 4000);
+        return packer;
+    }
+
+    private static RagRetrieveResponse.RagNode node(Long documentId, String context) {
+        RagRetrieveResponse.RagNode node = new RagRetrieveResponse.RagNode();
+        node.setDocumentId(documentId);
+        node.setContext(context);
+        return node;
+    }
+}
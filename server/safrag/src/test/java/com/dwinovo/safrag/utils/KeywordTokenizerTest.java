@@ -0,0 +1,64 @@
+package com.dwinovo.safrag.utils;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordTokenizerTest {
+
+    private final KeywordTokenizer tokenizer = new KeywordTokenizer();
+
+    @Test
+    void splitsCjkIntoOverlappingBigrams() {
+        assertEquals(List.of("知识", "识库", "库问", "问答"), tokenizer.tokenize("知识库问答"));
+    }
+
+    @Test
+    void keepsASingleCjkCharacter() {
+        assertEquals(List.of("表"), tokenizer.tokenize("表"));
+    }
+
+    @Test
+    void separatesCjkRunsFromLatinWords() {
+        assertEquals(List.of("部署", "spring", "服务"), tokenizer.tokenize("部署Spring服务"));
+    }
+
+    @Test
+    void lowercasesAndNormalizesFullWidthCharacters() {
+        assertEquals(List.of("abc123"), tokenizer.tokenize("ＡＢＣ１２３"));
+        assertEquals(List.of("hello", "world"), tokenizer.tokenize("Hello, WORLD!"));
+    }
+
+    @Test
+    void keepsConnectedIdentifiersWholeAndAddsTheirParts() {
+        assertEquals(List.of("ab-1234", "ab", "1234"), tokenizer.tokenize("AB-1234"));
+        assertEquals(List.of("v1.2.3", "v1", "2", "3"), tokenizer.tokenize("v1.2.3"));
+        assertEquals(List.of("max_tokens", "max", "tokens"), tokenizer.tokenize("max_tokens"));
+    }
+
+    @Test
+    void trailingConnectorsAreNotPartOfTheWord() {
+        assertEquals(List.of("end"), tokenizer.tokenize("end."));
+        assertEquals(List.of("ab", "错误"), tokenizer.tokenize("AB-错误"));
+    }
+
+    @Test
+    void emptyInputHasNoTokens() {
+        assertTrue(tokenizer.tokenize(null).isEmpty());
+        assertTrue(tokenizer.tokenize("").isEmpty());
+        assertTrue(tokenizer.tokenize("，。！").isEmpty());
+    }
+
+    @Test
+    void identifiersNeedLettersWithDigitsOrAConnector() {
+        assertEquals(Set.of("err42", "ab-1234", "max_tokens"),
+                tokenizer.identifiers("报错 ERR42 出现在 AB-1234 的 max_tokens 配置，版本 2024 与 abc"));
+    }
+
+    @Test
+    void shortTokensAreNotIdentifiers() {
+        assertTrue(tokenizer.identifiers("a1 b2 问题").isEmpty());
+    }
+}
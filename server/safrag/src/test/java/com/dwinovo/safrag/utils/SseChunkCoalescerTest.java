@@ -0,0 +1,100 @@
+package com.dwinovo.safrag.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseChunkCoalescerTest {
+
+    private final List<String> sent = new ArrayList<>();
+    private final Scheduler scheduler = Schedulers.newSingle("coalescer-test");
+    private int failures;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Test
+    void sendsTheFirstChunkImmediatelyAndBuffersTheRest() {
+        // 间隔足够长，测试期间定时刷新不会触发
+        SseChunkCoalescer coalescer = coalescer(60000, 1024);
+        coalescer.append("a");
+        coalescer.append("b");
+        coalescer.append("c");
+        assertEquals(List.of("a"), sent);
+        coalescer.flush();
+        assertEquals(List.of("a", "bc"), sent);
+    }
+
+    @Test
+    void flushesOnceBufferedBytesReachTheLimit() {
+        SseChunkCoalescer coalescer = coalescer(60000, 4);
+        coalescer.append("x");
+        coalescer.append("ab");
+        coalescer.append("cd");
+        assertEquals(List.of("x", "abcd"), sent);
+    }
+
+    @Test
+    void countsUtf8BytesNotCharacters() {
+        SseChunkCoalescer coalescer = coalescer(60000, 6);
+        coalescer.append("首");
+        coalescer.append("知识");
+        assertEquals(List.of("首", "知识"), sent);
+    }
+
+    @Test
+    void flushesOnTheIntervalTimer() throws InterruptedException {
+        SseChunkCoalescer coalescer = coalescer(20, 1024);
+        coalescer.append("a");
+        coalescer.append("b");
+        long deadline = System.currentTimeMillis() + 2000;
+        while (sent.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        synchronized (coalescer) {
+            assertEquals(List.of("a", "b"), sent);
+        }
+    }
+
+    @Test
+    void zeroIntervalSendsEveryChunk() {
+        SseChunkCoalescer coalescer = coalescer(0, 1024);
+        coalescer.append("a");
+        coalescer.append("b");
+        assertEquals(List.of("a", "b"), sent);
+    }
+
+    @Test
+    void stopsAfterASendFailure() {
+        SseChunkCoalescer coalescer = new SseChunkCoalescer(data -> {
+            throw new IOException("closed");
+        }, scheduler, 60000, 1024, () -> failures++);
+        coalescer.append("a");
+        coalescer.append("b");
+        coalescer.flush();
+        assertEquals(1, failures);
+    }
+
+    @Test
+    void discardDropsPendingChunks() {
+        SseChunkCoalescer coalescer = coalescer(60000, 1024);
+        coalescer.append("a");
+        coalescer.append("b");
+        coalescer.discard();
+        coalescer.flush();
+        coalescer.append("c");
+        assertEquals(List.of("a"), sent);
+    }
+
+    private SseChunkCoalescer coalescer(long intervalMs, int maxBytes) {
+        return new SseChunkCoalescer(sent::add, scheduler, intervalMs, maxBytes, () -> failures++);
+    }
+}
@@ -0,0 +1,201 @@
+package com.dwinovo.safrag.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseOutboxTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final RecordingEmitter emitter = new RecordingEmitter();
+    private final RecordingListener listener = new RecordingListener();
+
+    @Test
+    void writesEventsInOrderOnTheExecutor() {
+        SseOutbox outbox = outbox(8, 1 << 20, SseOutbox.Overflow.COALESCE);
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        outbox.offer("s:2", "message", "b", MediaType.TEXT_PLAIN);
+        // 生产方只入队，写出由执行器上的单个任务完成
+        assertTrue(emitter.sent.isEmpty());
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertEquals(2, emitter.sent.size());
+        assertTrue(emitter.sent.get(0).contains("id:s:1") && emitter.sent.get(0).contains("a"));
+        assertTrue(emitter.sent.get(1).contains("id:s:2") && emitter.sent.get(1).contains("b"));
+        assertEquals(0, listener.backlogBytes);
+    }
+
+    @Test
+    void coalescePolicyMergesMessagesAndKeepsTheLastId() {
+        SseOutbox outbox = outbox(2, 1 << 20, SseOutbox.Overflow.COALESCE);
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        outbox.offer("s:2", "message", "b", MediaType.TEXT_PLAIN);
+        outbox.offer("s:3", "message", "c", MediaType.TEXT_PLAIN);
+        assertEquals(1, outbox.size());
+        assertEquals(List.of("coalesced"), listener.overflows);
+        runTasks();
+        assertEquals(1, emitter.sent.size());
+        assertTrue(emitter.sent.get(0).contains("id:s:3"));
+        assertTrue(emitter.sent.get(0).contains("abc"));
+        assertFalse(listener.closed);
+    }
+
+    @Test
+    void coalescePolicyDoesNotMergeAcrossOtherEvents() {
+        SseOutbox outbox = outbox(2, 1 << 20, SseOutbox.Overflow.COALESCE);
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        outbox.offer("s:2", "reset", "full", MediaType.TEXT_PLAIN);
+        outbox.offer("s:3", "message", "b", MediaType.TEXT_PLAIN);
+        assertEquals(3, outbox.size());
+    }
+
+    @Test
+    void dropPolicyClosesTheConnection() {
+        SseOutbox outbox = outbox(2, 1 << 20, SseOutbox.Overflow.DROP);
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        outbox.offer("s:2", "message", "b", MediaType.TEXT_PLAIN);
+        outbox.offer("s:3", "message", "c", MediaType.TEXT_PLAIN);
+        assertEquals(List.of("dropped"), listener.overflows);
+        assertTrue(listener.closed);
+        assertTrue(emitter.completed);
+        assertEquals(0, outbox.size());
+        assertEquals(0, listener.backlogBytes);
+        // 断开后的事件被忽略
+        outbox.offer("s:4", "message", "d", MediaType.TEXT_PLAIN);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    void pausePolicySignalsPressureUntilHalfDrained() {
+        SseOutbox outbox = outbox(4, 1 << 20, SseOutbox.Overflow.PAUSE);
+        for (int i = 1; i <= 3; i++) {
+            outbox.offer("s:" + i, "message", "x", MediaType.TEXT_PLAIN);
+        }
+        assertFalse(outbox.isPressured());
+        outbox.offer("s:4", "message", "x", MediaType.TEXT_PLAIN);
+        assertTrue(outbox.isPressured());
+        outbox.offer("s:5", "message", "x", MediaType.TEXT_PLAIN);
+        outbox.offer("s:6", "message", "x", MediaType.TEXT_PLAIN);
+        // 只通知一次暂停，积压的事件都保留
+        assertEquals(List.of("paused"), listener.overflows);
+        assertEquals(6, outbox.size());
+        runTasks();
+        assertEquals(6, emitter.sent.size());
+        assertEquals(1, listener.drained);
+        assertFalse(outbox.isPressured());
+        assertFalse(listener.closed);
+    }
+
+    @Test
+    void exceedingMaxBytesClosesUnderAnyPolicy() {
+        for (SseOutbox.Overflow policy : SseOutbox.Overflow.values()) {
+            RecordingListener recording = new RecordingListener();
+            SseOutbox outbox = new SseOutbox(new RecordingEmitter(), tasks::add, 100, 8, policy, recording);
+            outbox.offer("s:1", "message", "0123456789", MediaType.TEXT_PLAIN);
+            assertTrue(recording.closed, policy.name());
+            assertEquals(List.of("dropped"), recording.overflows, policy.name());
+        }
+    }
+
+    @Test
+    void finishWritesPendingEventsThenCompletes() {
+        SseOutbox outbox = outbox(8, 1 << 20, SseOutbox.Overflow.COALESCE);
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        outbox.finish();
+        outbox.offer("s:2", "message", "late", MediaType.TEXT_PLAIN);
+        runTasks();
+        assertEquals(1, emitter.sent.size());
+        assertTrue(emitter.completed);
+    }
+
+    @Test
+    void writeFailureClosesAndNotifies() {
+        SseOutbox outbox = outbox(8, 1 << 20, SseOutbox.Overflow.COALESCE);
+        emitter.failing = true;
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        outbox.offer("s:2", "message", "b", MediaType.TEXT_PLAIN);
+        runTasks();
+        assertTrue(listener.closed);
+        assertEquals(0, outbox.size());
+        assertEquals(0, listener.backlogBytes);
+    }
+
+    @Test
+    void heartbeatOnlyWhenIdleAndDoesNotCountAsActivity() {
+        SseOutbox outbox = outbox(8, 1 << 20, SseOutbox.Overflow.COALESCE);
+        outbox.offer("s:1", "message", "a", MediaType.TEXT_PLAIN);
+        long lastOffer = outbox.lastOfferNanos();
+        outbox.heartbeat();
+        assertEquals(1, outbox.size());
+        runTasks();
+        outbox.heartbeat();
+        runTasks();
+        assertEquals(2, emitter.sent.size());
+        assertTrue(emitter.sent.get(1).startsWith(":heartbeat"));
+        assertEquals(lastOffer, outbox.lastOfferNanos());
+    }
+
+    private SseOutbox outbox(int maxEvents, long maxBytes, SseOutbox.Overflow policy) {
+        return new SseOutbox(emitter, tasks::add, maxEvents, maxBytes, policy, listener);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final List<String> sent = new ArrayList<>();
+        private boolean completed;
+        private boolean failing;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (failing) {
+                throw new IOException("broken pipe");
+            }
+            sent.add(builder.build().stream().map(d -> String.valueOf(d.getData())).collect(Collectors.joining()));
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+
+    private static class RecordingListener implements SseOutbox.Listener {
+
+        private final List<String> overflows = new ArrayList<>();
+        private long backlogBytes;
+        private int drained;
+        private boolean closed;
+
+        @Override
+        public void onOverflow(String action) {
+            overflows.add(action);
+        }
+
+        @Override
+        public void onBacklogChange(long deltaBytes) {
+            backlogBytes += deltaBytes;
+        }
+
+        @Override
+        public void onDrained(SseOutbox outbox) {
+            drained++;
+        }
+
+        @Override
+        public void onClosed(SseOutbox outbox) {
+            closed = true;
+        }
+    }
+}
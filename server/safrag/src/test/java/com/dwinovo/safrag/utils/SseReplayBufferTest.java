@@ -0,0 +1,70 @@
+package com.dwinovo.safrag.utils;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseReplayBufferTest {
+
+    @Test
+    void assignsIncreasingSequenceNumbers() {
+        SseReplayBuffer buffer = new SseReplayBuffer(4);
+        assertEquals(1, buffer.append("message", "a", MediaType.TEXT_PLAIN).seq());
+        assertEquals(2, buffer.append("message", "b", MediaType.TEXT_PLAIN).seq());
+        assertEquals(2, buffer.lastSeq());
+    }
+
+    @Test
+    void replaysEventsAfterTheGivenSequence() {
+        SseReplayBuffer buffer = appended(4, 3);
+        assertEquals(List.of("e1", "e2", "e3"), data(buffer.since(0)));
+        assertEquals(List.of("e3"), data(buffer.since(2)));
+        assertTrue(buffer.since(3).isEmpty());
+        // 客户端声称的序号超出已发出的范围时没有可补发的事件
+        assertTrue(buffer.since(10).isEmpty());
+    }
+
+    @Test
+    void negativeSequenceReplaysFromTheStart() {
+        SseReplayBuffer buffer = appended(4, 2);
+        assertEquals(List.of("e1", "e2"), data(buffer.since(-1)));
+    }
+
+    @Test
+    void keepsTheLatestEventsAfterWrappingAround() {
+        SseReplayBuffer buffer = appended(4, 10);
+        // 最近 4 个事件是 7..10，从 6 之后补发正好不缺
+        assertEquals(List.of("e7", "e8", "e9", "e10"), data(buffer.since(6)));
+        assertEquals(List.of("e9", "e10"), data(buffer.since(8)));
+    }
+
+    @Test
+    void returnsNullOnceMissedEventsWereOverwritten() {
+        SseReplayBuffer buffer = appended(4, 10);
+        // 需要 6..10 共 5 个事件，6 已被覆盖，调用方改为发送 reset
+        assertNull(buffer.since(5));
+        assertNull(buffer.since(0));
+    }
+
+    @Test
+    void capacityIsAtLeastOne() {
+        SseReplayBuffer buffer = appended(0, 3);
+        assertEquals(List.of("e3"), data(buffer.since(2)));
+        assertNull(buffer.since(1));
+    }
+
+    private static SseReplayBuffer appended(int capacity, int count) {
+        SseReplayBuffer buffer = new SseReplayBuffer(capacity);
+        for (int i = 1; i <= count; i++) {
+            buffer.append("message", "e" + i, MediaType.TEXT_PLAIN);
+        }
+        return buffer;
+    }
+
+    private static List<Object> data(List<SseReplayBuffer.Event> events) {
+        assertNotNull(events);
+        return events.stream().map(SseReplayBuffer.Event::data).toList();
+    }
+}
@@ -0,0 +1,86 @@
+-- 已有数据库的增量升级：init.sql 只在空库初始化时执行，之后新增的表和列在这里补齐。
+-- 可重复执行，已存在的表、列与索引会跳过。用法：mysql -u<user> -p <database> < upgrade.sql
+
+drop procedure if exists safrag_add_column;
+drop procedure if exists safrag_add_index;
+
+delimiter //
+
+create procedure safrag_add_column(in p_table varchar(64), in p_column varchar(64), in p_definition text)
+begin
+    if not exists (select 1
+                   from information_schema.columns
+                   where table_schema = database()
+                     and table_name = p_table
+                     and column_name = p_column) then
+        set @ddl = concat('alter table ', p_table, ' add column ', p_column, ' ', p_definition);
+        prepare stmt from @ddl;
+        execute stmt;
+        deallocate prepare stmt;
+    end if;
+end //
+
+create procedure safrag_add_index(in p_table varchar(64), in p_index varchar(64), in p_columns text)
+begin
+    if not exists (select 1
+                   from information_schema.statistics
+                   where table_schema = database()
+                     and table_name = p_table
+                     and index_name = p_index) then
+        set @ddl = concat('create index ', p_index, ' on ', p_table, ' (', p_columns, ')');
+        prepare stmt from @ddl;
+        execute stmt;
+        deallocate prepare stmt;
+    end if;
+end //
+
+delimiter ;
+
+-- 持久化的文档切片任务
+create table if not exists ingestion_jobs
+(
+    id           bigint auto_increment comment '切片任务ID，主键'
+        primary key,
+    document_id  bigint                                                not null comment '关联的文档ID',
+    status       enum ('PENDING', 'PROCESSING', 'COMPLETED', 'FAILED') not null comment '任务状态',
+    attempts     int       default 0                                   not null comment '已尝试次数',
+    max_attempts int       default 5                                   not null comment '最大尝试次数',
+    next_run_at  timestamp default CURRENT_TIMESTAMP                   not null comment '下一次可执行时间，用于退避重试',
+    last_error   varchar(1024)                                         null comment '最近一次失败原因',
+    created_at   timestamp default CURRENT_TIMESTAMP                   null,
+    updated_at   timestamp default CURRENT_TIMESTAMP                   null on update CURRENT_TIMESTAMP,
+    constraint uk_document_id
+        unique (document_id)
+)
+    comment '文档切片任务表';
+
+call safrag_add_index('ingestion_jobs', 'idx_status_next_run_at', 'status, next_run_at');
+
+-- 对话历史滚动摘要
+create table if not exists conversation_summaries
+(
+    conversation_id bigint                              not null comment '所属对话的ID，主键'
+        primary key,
+    summary         text                                not null comment '滚动摘要内容',
+    last_message_id bigint                              not null comment '摘要已覆盖到的最后一条消息ID',
+    token_count     int       default 0                 not null comment '摘要的 token 数',
+    created_at      timestamp default CURRENT_TIMESTAMP null,
+    updated_at      timestamp default CURRENT_TIMESTAMP null on update CURRENT_TIMESTAMP
+)
+    comment '对话历史滚动摘要表';
+
+-- 流式生成中的助手消息状态；已有消息都是完整回复
+call safrag_add_column('messages', 'status',
+    'enum (''STREAMING'', ''COMPLETED'', ''CANCELLED'', ''FAILED'') default ''COMPLETED'' not null comment ''消息状态，流式生成中的助手消息为 STREAMING'' after content');
+
+-- 检查点刷新的更新时间，用于只回收已停止节点遗留的 STREAMING 消息
+call safrag_add_column('messages', 'updated_at',
+    'timestamp default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment ''最后更新时间，流式生成期间随检查点刷新'' after created_at');
+call safrag_add_index('messages', 'idx_status_updated_at', 'status, updated_at');
+
+-- 按知识库关闭无上下文短路
+call safrag_add_column('knowledge_bases', 'no_context_short_circuit',
+    'tinyint(1) default 1 not null comment ''检索不到知识片段时直接回复固定答案，不调用模型'' after description');
+
+drop procedure if exists safrag_add_column;
+drop procedure if exists safrag_add_index;